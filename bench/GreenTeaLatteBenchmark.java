@@ -0,0 +1,260 @@
+package greentealatte.bench;
+
+import greentealatte.src.GreenTeaLatte;
+import greentealatte.src.GreenTeaLatteReporter;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the overhead of the GreenTeaLatte framework itself
+ * <p>
+ * Each benchmark builds or runs a synthetic tree, the tests in the tree do no work of their own.
+ * Run with JMH through {@code gradle jmh}, the tree sizes can be changed with {@code --args='-p tests=1000'}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class GreenTeaLatteBenchmark {
+    // depth of the stack when a test fails in the deep stack benchmark
+    private static final int STACK_DEPTH = 200;
+
+    // amount of tests in each tree
+    @Param({ "10000", "100000" })
+    public int tests;
+
+    /**
+     * Reporter which discards all output, so only the framework is measured
+     */
+    private static class DiscardingReporter implements GreenTeaLatteReporter {
+        @Override
+        public void describeStarted(int depth, String description) {}
+
+        @Override
+        public void hookStarted(int depth, String description) {}
+
+        @Override
+        public void hookFinished(int depth, String description, long durationNanos) {}
+
+        @Override
+        public void testFinished(int depth, String description, Outcome outcome, long durationNanos,
+            Throwable throwable) {}
+
+        @Override
+        public void describeFinished(int depth, int passed, int pending, int failed, long durationNanos) {}
+
+        @Override
+        public void slowReported(int rank, String path, long durationNanos) {}
+
+        @Override
+        public void flush() {}
+    }
+
+    /**
+     * Defines a tree of tests on a GreenTeaLatte instance
+     */
+    private interface TreeDefinition {
+        void define(GreenTeaLatte latte);
+    }
+
+    /**
+     * Creates a new GreenTeaLatte and defines a tree on it
+     *
+     * @param definition tree to define
+     * @return the GreenTeaLatte instance
+     */
+    private static GreenTeaLatte build(TreeDefinition definition) {
+        GreenTeaLatte latte = new GreenTeaLatte();
+        latte.setReporter(new DiscardingReporter());
+        definition.define(latte);
+        return latte;
+    }
+
+    /**
+     * Runs a tree, catching the error thrown when tests have failed
+     *
+     * @param latte tree to run
+     * @return the error, or null when every test passed
+     */
+    private static Error runIgnoringFailures(GreenTeaLatte latte) {
+        try {
+            latte.run();
+            return null;
+        } catch (Error error) {
+            return error;
+        }
+    }
+
+    /**
+     * Wide tree: 100 describe nodes with the tests split evenly between them
+     *
+     * @param tests amount of tests in the tree
+     * @param result passed to every assertTest call
+     * @return tree definition
+     */
+    private static TreeDefinition wide(int tests, boolean result) {
+        return latte -> {
+            int nodes = 100;
+            for (int i = 0; i < nodes; i++) {
+                latte.describe("node " + i, () -> {
+                    for (int j = 0; j < tests / nodes; j++) {
+                        latte.it("test " + j, () -> latte.assertTest(result));
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Deep tree: chains of 50 nested describe nodes, each holding one test
+     *
+     * @param tests amount of tests in the tree
+     * @return tree definition
+     */
+    private static TreeDefinition deep(int tests) {
+        return latte -> {
+            int chainDepth = 50;
+            for (int i = 0; i < tests / chainDepth; i++) {
+                latte.describe("chain " + i, () -> nest(latte, chainDepth));
+            }
+        };
+    }
+
+    /**
+     * Nests describe nodes until the remaining depth is used up
+     *
+     * @param latte tree to define the nodes on
+     * @param remainingDepth amount of nodes left to nest
+     */
+    private static void nest(GreenTeaLatte latte, int remainingDepth) {
+        latte.it("test", () -> latte.assertTest(true));
+        if (remainingDepth > 1) latte.describe("level", () -> nest(latte, remainingDepth - 1));
+    }
+
+    /**
+     * Hook heavy tree: like the wide tree, but every node defines two hooks of each type
+     *
+     * @param tests amount of tests in the tree
+     * @return tree definition
+     */
+    private static TreeDefinition hookHeavy(int tests) {
+        return latte -> {
+            int nodes = 100;
+            for (int i = 0; i < nodes; i++) {
+                latte.describe("node " + i, () -> {
+                    for (int h = 0; h < 2; h++) {
+                        latte.before("before " + h, () -> {});
+                        latte.beforeEach("beforeEach " + h, () -> {});
+                        latte.afterEach("afterEach " + h, () -> {});
+                        latte.after("after " + h, () -> {});
+                    }
+                    for (int j = 0; j < tests / nodes; j++) {
+                        latte.it("test " + j, () -> latte.assertTest(true));
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Tree where every test fails deep inside a recursive call, stressing the stack trace filtering
+     *
+     * @param tests amount of tests in the tree
+     * @return tree definition
+     */
+    private static TreeDefinition deepStackFailures(int tests) {
+        return latte -> {
+            for (int i = 0; i < tests; i++) {
+                latte.it("test " + i, () -> recurse(latte, STACK_DEPTH));
+            }
+        };
+    }
+
+    /**
+     * Recurses before failing an assertion, to create a deep stack
+     *
+     * @param latte tree to assert on
+     * @param remainingDepth amount of frames left to create
+     */
+    private static void recurse(GreenTeaLatte latte, int remainingDepth) {
+        if (remainingDepth == 0) latte.assertTest(false);
+        else recurse(latte, remainingDepth - 1);
+    }
+
+    /**
+     * Registers the tests of a wide tree
+     *
+     * @return the tree, consumed by JMH
+     */
+    @Benchmark
+    public GreenTeaLatte registerWide() {
+        return build(wide(this.tests, true));
+    }
+
+    /**
+     * Registers the tests of a deep tree
+     *
+     * @return the tree, consumed by JMH
+     */
+    @Benchmark
+    public GreenTeaLatte registerDeep() {
+        return build(deep(this.tests));
+    }
+
+    /**
+     * Builds and runs a wide tree where every assertTest call passes
+     */
+    @Benchmark
+    public void runWidePassing() {
+        build(wide(this.tests, true)).run();
+    }
+
+    /**
+     * Builds and runs a wide tree where every assertTest call fails
+     *
+     * @return the error thrown by the failed run, consumed by JMH
+     */
+    @Benchmark
+    public Error runWideFailing() {
+        return runIgnoringFailures(build(wide(this.tests, false)));
+    }
+
+    /**
+     * Builds and runs a deep tree
+     */
+    @Benchmark
+    public void runDeep() {
+        build(deep(this.tests)).run();
+    }
+
+    /**
+     * Builds and runs a hook heavy tree
+     */
+    @Benchmark
+    public void runHookHeavy() {
+        build(hookHeavy(this.tests)).run();
+    }
+
+    /**
+     * Builds and runs a tree where every test fails on a deep stack
+     * <p>
+     * Failing with a deep stack is far slower per test, so a tenth of the tests is used.
+     *
+     * @return the error thrown by the failed run, consumed by JMH
+     */
+    @Benchmark
+    public Error runDeepStackFailures() {
+        return runIgnoringFailures(build(deepStackFailures(this.tests / 10)));
+    }
+}
@@ -0,0 +1,228 @@
+package greentealatte.src;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+
+/**
+ * Stores the baseline measurements of the "assertNoRegression" calls of each test in a compact text file
+ * <p>
+ * Each line holds one measurement: the wall time and CPU time in nanoseconds, the allocated bytes, then the
+ * description of every "describe" above the test followed by the test description, all separated by tabs.
+ * Descriptions are escaped the same as in a ResultFile. Values which could not be measured are stored as -1.
+ * <p>
+ * The baseline of a test is the median of its first SAMPLES passing measurements, one line each, so a single
+ * cold or noisy run does not decide it. Once complete, baselines are never replaced, so a slow regression cannot
+ * creep in one run at a time. Removing the lines of a test, or refreshing, records a new baseline for that test.
+ */
+class BaselineFile {
+    // amount of measurements from separate runs which make up a baseline
+    static final int SAMPLES = 5;
+
+    /**
+     * Measurement of a single piece of code
+     */
+    static class Measurement {
+        // storage
+        long wallNanos;
+        long cpuNanos;       // -1 when CPU time is not supported on the measured thread
+        long allocatedBytes; // -1 when allocation is not supported on the measured thread
+        String[] segments = null; // descriptions from the first "describe" down to the test, set once stored
+
+        /**
+         * creates a Measurement
+         *
+         * @param wallNanos elapsed time
+         * @param cpuNanos CPU time of the measured thread, or -1
+         * @param allocatedBytes bytes allocated by the measured thread, or -1
+         */
+        Measurement(long wallNanos, long cpuNanos, long allocatedBytes) {
+            this.wallNanos      = wallNanos;
+            this.cpuNanos       = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        /**
+         * Creates the key of the test, the same as a ResultFile uses
+         *
+         * @return key
+         */
+        String getKey() {
+            return ResultFile.getKey(this.segments);
+        }
+    }
+
+    // storage
+    private Path file;
+    private Map<String, List<Measurement>> samples;
+    private boolean hasNewSamples = false;
+
+    // keys whose samples from previous runs are dropped when first measured, null when not refreshing
+    private Set<String> refreshedKeys;
+
+    /**
+     * Opens a baseline file, reading the samples stored by previous runs
+     *
+     * @param file file to store the baselines in
+     * @param isRefreshing true to replace the baseline of every test which is measured in this run
+     */
+    BaselineFile(Path file, boolean isRefreshing) {
+        this.file          = file;
+        this.samples       = new LinkedHashMap<String, List<Measurement>>();
+        this.refreshedKeys = isRefreshing ? new HashSet<String>() : null;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                Measurement sample = parse(line);
+                this.samples.computeIfAbsent(sample.getKey(), key -> new ArrayList<Measurement>()).add(sample);
+            }
+        } catch (NoSuchFileException exception) {
+            // no previous run
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * Parses a single line of a baseline file
+     *
+     * @param line line to parse
+     * @return the measurement
+     */
+    static Measurement parse(String line) {
+        String[] fields         = line.split("\t", -1);
+        Measurement measurement = new Measurement(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+            Long.parseLong(fields[2]));
+        measurement.segments = new String[fields.length - 3];
+        for (int i = 0; i < measurement.segments.length; i++) {
+            measurement.segments[i] = ResultFile.unescape(fields[i + 3]);
+        }
+        return measurement;
+    }
+
+    /**
+     * Formats a measurement as a single line, without a line separator
+     *
+     * @param measurement measurement to format
+     * @return the line
+     */
+    static String format(Measurement measurement) {
+        StringBuilder line = new StringBuilder();
+        line.append(measurement.wallNanos).append('\t').append(measurement.cpuNanos).append('\t')
+            .append(measurement.allocatedBytes);
+        for (String segment : measurement.segments) {
+            line.append('\t');
+            ResultFile.escape(line, segment);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Gets the samples of a test which the baseline is made of
+     *
+     * @param key key of the test, see ResultFile.getKey
+     * @return the samples, empty when the test has none yet or is being refreshed
+     */
+    private List<Measurement> getSamples(String key) {
+        if (this.refreshedKeys != null && !this.refreshedKeys.contains(key)) return Collections.emptyList();
+        return this.samples.getOrDefault(key, Collections.<Measurement>emptyList());
+    }
+
+    /**
+     * Gets the baseline of a test, the median of each value over its samples
+     * <p>
+     * Safe to call from multiple threads.
+     *
+     * @param key key of the test, see ResultFile.getKey
+     * @return the baseline, or null when the test has no samples yet
+     */
+    synchronized Measurement get(String key) {
+        List<Measurement> samples = this.getSamples(key);
+        if (samples.isEmpty()) return null;
+        return new Measurement(getMedian(samples, sample -> sample.wallNanos),
+            getMedian(samples, sample -> sample.cpuNanos), getMedian(samples, sample -> sample.allocatedBytes));
+    }
+
+    /**
+     * Gets the amount of samples the baseline of a test is made of
+     * <p>
+     * Safe to call from multiple threads.
+     *
+     * @param key key of the test, see ResultFile.getKey
+     * @return amount of samples, from 0 up to SAMPLES
+     */
+    synchronized int getSampleCount(String key) {
+        return this.getSamples(key).size();
+    }
+
+    /**
+     * Gets the median of a value over samples, leaving out samples where it could not be measured
+     *
+     * @param samples samples to take the value from
+     * @param value gets the value of a sample
+     * @return the median, or -1 when no sample has the value
+     */
+    private static long getMedian(List<Measurement> samples, ToLongFunction<Measurement> value) {
+        long[] values = samples.stream().mapToLong(value).filter(measured -> measured >= 0).sorted().toArray();
+        if (values.length == 0) return -1;
+        int middle = values.length / 2;
+        return values.length % 2 == 1 ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+    }
+
+    /**
+     * Adds a measurement of a passing test to its baseline, until the baseline has all of its samples
+     * <p>
+     * Safe to call from multiple threads.
+     *
+     * @param measurement measurement with its segments set
+     * @return true if the measurement was added
+     */
+    synchronized boolean add(Measurement measurement) {
+        String key = measurement.getKey();
+        if (this.refreshedKeys != null && this.refreshedKeys.add(key)) this.samples.remove(key);
+        List<Measurement> samples = this.samples.computeIfAbsent(key, added -> new ArrayList<Measurement>());
+        if (samples.size() >= SAMPLES) return false;
+        samples.add(measurement);
+        this.hasNewSamples = true;
+        return true;
+    }
+
+    /**
+     * Replaces the baseline file when samples were added
+     */
+    synchronized void close() {
+        if (!this.hasNewSamples) return;
+        Path temporaryFile = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+            for (List<Measurement> samples : this.samples.values()) {
+                for (Measurement sample : samples) {
+                    writer.write(format(sample));
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        try {
+            Files.move(temporaryFile, this.file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        this.hasNewSamples = false;
+    }
+}
@@ -0,0 +1,210 @@
+package greentealatte.src;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Prints the test tree in a human readable format
+ * <p>
+ * All output goes through a single buffered writer, which is flushed whenever a
+ * top level "describe" finishes and when the tree stops running.
+ */
+public class ConsoleReporter implements GreenTeaLatteReporter {
+    // storage
+    private Writer writer;
+    private String singleIndentation;
+    private String[] indentations = new String[] { "" };
+
+    // a blank line is owed between the last child of a node and the rest of the node
+    private boolean isBlankLinePending = false;
+
+    /**
+     * Creates a ConsoleReporter which prints to standard output using tabs for indentation
+     */
+    public ConsoleReporter() {
+        this(System.out, "\t");
+    }
+
+    /**
+     * Creates a ConsoleReporter which encodes its output with the default charset, like a PrintStream created
+     * without a charset
+     *
+     * @param out stream to print to
+     * @param singleIndentation string used for a single level of indentation
+     */
+    public ConsoleReporter(PrintStream out, String singleIndentation) {
+        this(out, Charset.defaultCharset(), singleIndentation);
+    }
+
+    /**
+     * Creates a ConsoleReporter
+     * <p>
+     * The output is encoded before it reaches the stream, so the charset must be the one the stream was created
+     * with, or the one its reader expects.
+     *
+     * @param out stream to print to
+     * @param charset charset to encode the output with
+     * @param singleIndentation string used for a single level of indentation
+     */
+    public ConsoleReporter(PrintStream out, Charset charset, String singleIndentation) {
+        this.writer            = new BufferedWriter(new OutputStreamWriter(out, charset), 1 << 16);
+        this.singleIndentation = singleIndentation;
+    }
+
+    /**
+     * Gets the full indentation for a depth, creating and caching it on first use
+     *
+     * @param indentAmount amount of single indentations
+     * @return full indentation
+     */
+    String getIndentation(int indentAmount) {
+        if (indentAmount >= this.indentations.length) {
+            String[] grown = new String[Math.max(indentAmount + 1, this.indentations.length * 2)];
+            System.arraycopy(this.indentations, 0, grown, 0, this.indentations.length);
+            for (int i = this.indentations.length; i < grown.length; i++) {
+                grown[i] = grown[i - 1] + this.singleIndentation;
+            }
+            this.indentations = grown;
+        }
+        return this.indentations[indentAmount];
+    }
+
+    /**
+     * Writes a single indented line
+     *
+     * @param indentAmount amount of single indentations
+     * @param line line to write, without a line separator
+     */
+    void writeLine(int indentAmount, String line) {
+        try {
+            this.writer.write(this.getIndentation(indentAmount));
+            this.writer.write(line);
+            this.writer.write('\n');
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * Writes out the blank line owed after the children of a node, if there is one
+     */
+    private void writePendingBlankLine() {
+        if (this.isBlankLinePending) {
+            this.isBlankLinePending = false;
+            this.writeLine(0, "");
+        }
+    }
+
+    @Override
+    public void describeStarted(int depth, String description) {
+        this.isBlankLinePending = false;
+        if (depth > 0) this.writeLine(0, "");
+        this.writeLine(depth, description);
+    }
+
+    /**
+     * Formats a duration in milliseconds
+     *
+     * @param durationNanos duration in nanoseconds
+     * @return human readable duration
+     */
+    static String formatDuration(long durationNanos) {
+        return String.format("%.3f ms", durationNanos / 1e6);
+    }
+
+    @Override
+    public void hookStarted(int depth, String description) {
+        this.writePendingBlankLine();
+        this.writeLine(depth + 1, description);
+    }
+
+    @Override
+    public void hookFinished(int depth, String description, long durationNanos) {}
+
+    @Override
+    public void hookFailed(int depth, String description, Throwable throwable) {
+        this.writeLine(depth + 2, GreenTeaLatte.SYMBOL_FAILED + " " + throwable);
+        for (StackTraceElement element : throwable.getStackTrace()) this.writeLine(depth + 3, element.toString());
+    }
+
+    @Override
+    public void testFinished(int depth, String description, Outcome outcome, long durationNanos,
+        Throwable throwable) {
+        this.writePendingBlankLine();
+        String symbolForTest = GreenTeaLatte.SYMBOL_SUCCESSFUL;
+        if (outcome == Outcome.FAILED) symbolForTest = GreenTeaLatte.SYMBOL_FAILED;
+        else if (outcome == Outcome.PENDING) symbolForTest = GreenTeaLatte.SYMBOL_WARNING;
+        this.writeLine(depth + 1, symbolForTest + " " + description);
+
+        if (throwable != null) {
+            // prints out the strack trace of the throwable, but includes indentation
+            this.writeLine(depth + 2, throwable.toString());
+            for (StackTraceElement element : throwable.getStackTrace()) {
+                this.writeLine(depth + 3, element.toString());
+            }
+        }
+    }
+
+    @Override
+    public void testDetailed(int depth, String detail) {
+        this.writeLine(depth + 2, detail);
+    }
+
+    @Override
+    public void describeFinished(int depth, int passed, int pending, int failed, long durationNanos) {
+        this.writePendingBlankLine();
+
+        // report information on amount of tests successful, pending, and failed
+        if (depth == 0) this.writeLine(0, "Test Summary:");
+        else this.writeLine(0, "");
+        this.writeSummary(depth, passed, pending, failed);
+
+        if (depth == 0) {
+            this.writeLine(0, "");
+            if (pending > 0) this.writeLine(0, GreenTeaLatte.SYMBOL_WARNING + " " + pending + " pending tests!");
+            if (failed <= 0) this.writeLine(0, GreenTeaLatte.SYMBOL_SUCCESSFUL + " All tests passed!");
+            else this.writeLine(0, GreenTeaLatte.SYMBOL_FAILED + " Tests have failed!");
+        }
+
+        if (depth > 0) this.isBlankLinePending = true;
+        if (depth <= 1) this.flush();
+    }
+
+    @Override
+    public void slowReported(int rank, String path, long durationNanos) {
+        if (rank == 1) {
+            this.writeLine(0, "");
+            this.writeLine(0, "Slowest tests and hooks:");
+        }
+        this.writeLine(1, String.format("%d. %s (%s)", rank, path, formatDuration(durationNanos)));
+        this.flush();
+    }
+
+    /**
+     * Writes the amount of tests successful, pending, and failed for a node
+     *
+     * @param depth depth of the node
+     * @param passed amount of successful tests
+     * @param pending amount of pending tests
+     * @param failed amount of failed tests
+     */
+    void writeSummary(int depth, int passed, int pending, int failed) {
+        this.writeLine(depth + 1, passed + " passed " + GreenTeaLatte.SYMBOL_SUCCESSFUL);
+        if (pending > 0) this.writeLine(depth + 1, pending + " pending " + GreenTeaLatte.SYMBOL_WARNING);
+        this.writeLine(depth + 1, failed + " failed " + GreenTeaLatte.SYMBOL_FAILED);
+    }
+
+    @Override
+    public void flush() {
+        try {
+            this.writer.flush();
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+}
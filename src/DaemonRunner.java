@@ -0,0 +1,287 @@
+package greentealatte.src;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Keeps a GreenTeaLatte tree in a long lived process, running it again whenever it is triggered
+ * <p>
+ * Runs are triggered by a request on a local socket, or by a change in a watched directory. The JVM
+ * and the code compiled by the JIT stay warm between runs, so repeated runs start right away. Bodies
+ * of lazy "describe" nodes run again on every run, so tests added or changed through a hot swap are
+ * picked up, eager nodes keep the tests they were defined with.
+ * <p>
+ * A socket request is a single line holding the grep pattern of the run, an empty line runs the tree
+ * with its own selection. The output of the run is sent back in UTF-8, followed by a final line of
+ * "exit 0" when no test failed and "exit 1" otherwise.
+ * <p>
+ * The background threads are daemon threads, so they do not keep the JVM alive, and close stops them.
+ */
+public class DaemonRunner implements AutoCloseable {
+    // start of the final line sent back for a socket request, followed by the exit code
+    private static final String EXIT_PREFIX = "exit ";
+
+    // changes arriving within this many milliseconds of each other trigger a single run
+    private static final long WATCH_QUIET_MILLIS = 100;
+
+    // storage
+    private GreenTeaLatte tree;
+
+    // server sockets and watch services opened by listen and watch, closed by close
+    private final List<Closeable> resources = new LinkedList<Closeable>();
+
+    /**
+     * Creates a DaemonRunner
+     *
+     * @param tree tree to run, with every "describe" already defined
+     */
+    public DaemonRunner(GreenTeaLatte tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * Runs the tree once, encoding the output with the default charset, only one run happens at a time
+     *
+     * @param grep regular expression which test paths must contain, null keeps the selection of the tree
+     * @param out stream to print the output to
+     * @return true if no selected test failed and nothing stopped the tree from running
+     */
+    public boolean run(String grep, PrintStream out) {
+        return this.run(grep, out, Charset.defaultCharset());
+    }
+
+    /**
+     * Runs the tree once, only one run happens at a time
+     * <p>
+     * Errors which stop the tree from running are printed instead of thrown, so the daemon keeps going.
+     *
+     * @param grep regular expression which test paths must contain, null keeps the selection of the tree
+     * @param out stream to print the output to
+     * @param charset charset the stream encodes with, which the output of the tree is encoded with as well
+     * @return true if no selected test failed and nothing stopped the tree from running
+     */
+    public synchronized boolean run(String grep, PrintStream out, Charset charset) {
+        long startTime = System.nanoTime();
+        boolean hasPassed;
+        try {
+            hasPassed = this.tree.rerun(grep, out, charset);
+        } catch (Throwable throwable) {
+            throwable.printStackTrace(out);
+            hasPassed = false;
+        }
+        out.printf("Ran in %d ms\n", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        out.flush();
+        return hasPassed;
+    }
+
+    /**
+     * Starts accepting run requests on a local socket, in the background
+     * <p>
+     * Only connections from the loopback address are accepted. Requests are handled one after the other.
+     *
+     * @param port port to listen on, 0 picks a free port
+     * @return port which is listened on
+     * @throws UncheckedIOException if the socket cannot be opened
+     */
+    public int listen(int port) {
+        ServerSocket server;
+        try {
+            server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        this.addResource(server);
+        Thread thread = new Thread(() -> {
+            while (!server.isClosed()) {
+                try (Socket socket = server.accept()) {
+                    this.handleRequest(socket);
+                } catch (IOException exception) {
+                    // a client which went away only loses its own run, a closed server ends the loop
+                }
+            }
+        }, "greentealatte-daemon-socket");
+        thread.setDaemon(true);
+        thread.start();
+        return server.getLocalPort();
+    }
+
+    /**
+     * Runs the tree for a single socket request, sending the output back
+     *
+     * @param socket connection of the request
+     * @throws IOException if the connection fails
+     */
+    private void handleRequest(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+            StandardCharsets.UTF_8));
+        String grep     = reader.readLine();
+        PrintStream out = new PrintStream(socket.getOutputStream(), false, StandardCharsets.UTF_8);
+        boolean passed  = this.run(grep == null || grep.isEmpty() ? null : grep, out, StandardCharsets.UTF_8);
+        out.print(EXIT_PREFIX + (passed ? 0 : 1) + "\n");
+        out.flush();
+    }
+
+    /**
+     * Starts running the tree whenever a file in a directory or its subdirectories changes, in the background
+     * <p>
+     * Changes which arrive close together, such as from a single build, trigger a single run.
+     * Output goes to standard output.
+     *
+     * @param directory directory to watch, such as the output directory of the compiler
+     * @throws UncheckedIOException if the directory cannot be watched
+     */
+    public void watch(String directory) {
+        WatchService watcher;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            register(watcher, Paths.get(directory));
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        this.addResource(watcher);
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    // waiting for the first change, then for the changes to settle
+                    WatchKey key = watcher.take();
+                    while (key != null) {
+                        Path changedDirectory = (Path) key.watchable();
+                        key.pollEvents().forEach(event -> {
+                            if (event.kind() != StandardWatchEventKinds.ENTRY_CREATE) return;
+                            Path created = changedDirectory.resolve((Path) event.context());
+                            if (Files.isDirectory(created)) register(watcher, created);
+                        });
+                        key.reset();
+                        key = watcher.poll(WATCH_QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+                    this.run(null, System.out);
+                }
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            } catch (ClosedWatchServiceException exception) {
+                // closed by close
+            }
+        }, "greentealatte-daemon-watch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Keeps a server socket or watch service to be closed by close
+     *
+     * @param resource resource to keep
+     */
+    private void addResource(Closeable resource) {
+        synchronized (this.resources) {
+            this.resources.add(resource);
+        }
+    }
+
+    /**
+     * Stops listening for requests and watching directories
+     * <p>
+     * A run which is in progress still finishes, no new run starts afterwards.
+     *
+     * @throws UncheckedIOException if a socket or watch service cannot be closed
+     */
+    @Override
+    public void close() {
+        IOException firstException = null;
+        synchronized (this.resources) {
+            for (Closeable resource : this.resources) {
+                try {
+                    resource.close();
+                } catch (IOException exception) {
+                    if (firstException == null) firstException = exception;
+                }
+            }
+            this.resources.clear();
+        }
+        if (firstException != null) throw new UncheckedIOException(firstException);
+    }
+
+    /**
+     * Registers a directory and all of its subdirectories with a watch service
+     *
+     * @param watcher watch service to register with
+     * @param directory directory to register
+     * @throws UncheckedIOException if a directory cannot be registered
+     */
+    private static void register(WatchService watcher, Path directory) {
+        try (Stream<Path> directories = Files.walk(directory)) {
+            directories.filter(Files::isDirectory).forEach(path -> {
+                try {
+                    path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                } catch (IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+            });
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * Asks a running daemon to run its tree, printing the output as it arrives
+     *
+     * @param port port the daemon listens on
+     * @param grep regular expression which test paths must contain, null keeps the selection of the tree
+     * @param out stream to print the output to
+     * @return true if the run passed
+     * @throws UncheckedIOException if the daemon cannot be reached
+     */
+    public static boolean request(int port, String grep, PrintStream out) {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.getOutputStream().write(((grep == null ? "" : grep) + "\n").getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                StandardCharsets.UTF_8));
+            // the exit line is the last one, so each line is held back until the next one arrives
+            String line;
+            String previous = null;
+            while ((line = reader.readLine()) != null) {
+                if (previous != null) out.println(previous);
+                previous = line;
+            }
+            return (EXIT_PREFIX + 0).equals(previous);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * Asks a running daemon to run its tree from the command line, exiting with 1 if the run failed
+     *
+     * @param args port of the daemon, optionally followed by the grep pattern of the run
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: DaemonRunner <port> [grep pattern]");
+            System.exit(2);
+        }
+        boolean passed = request(Integer.parseInt(args[0]), args.length > 1 ? args[1] : null, System.out);
+        System.exit(passed ? 0 : 1);
+    }
+}
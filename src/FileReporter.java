@@ -0,0 +1,179 @@
+package greentealatte.src;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Base for reporters which stream machine readable output to a file while the tree runs
+ * <p>
+ * Output goes through a fixed size buffer into a file channel, so memory use does not grow with the
+ * size of the tree. The file is opened when the root node starts and closed when the tree stops running.
+ * The descriptions of the nodes above the current event are tracked, so subclasses can report full paths.
+ */
+abstract class FileReporter implements GreenTeaLatteReporter {
+    // storage
+    private Path file;
+    private FileChannel channel = null;
+    private ByteBuffer buffer   = ByteBuffer.allocateDirect(1 << 16);
+
+    // descriptions of the nodes from the root down to the current node, by depth
+    private String[] descriptions = new String[16];
+
+    /**
+     * Creates a FileReporter
+     *
+     * @param file path of the file to write, replaced when the tree starts running
+     */
+    FileReporter(String file) {
+        this.file = Paths.get(file);
+    }
+
+    /**
+     * Writes the start of the file, called once the file is opened
+     */
+    abstract void writeHeader();
+
+    /**
+     * Writes the end of the file, called right before the file is closed
+     */
+    abstract void writeFooter();
+
+    /**
+     * Writes text to the file through the buffer
+     *
+     * @param text text to write
+     */
+    void write(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > this.buffer.remaining()) this.flushBuffer();
+        if (bytes.length > this.buffer.capacity()) {
+            this.writeFully(ByteBuffer.wrap(bytes));
+        } else {
+            this.buffer.put(bytes);
+        }
+    }
+
+    /**
+     * Overwrites part of the file which was already written
+     *
+     * @param position position in the file to write at
+     * @param text text to write, must not be longer than the text it replaces
+     */
+    void overwrite(long position, String text) {
+        this.flushBuffer();
+        try {
+            ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) position += this.channel.write(bytes, position);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * Gets the position in the file that the next write will go to
+     *
+     * @return position in bytes
+     */
+    long position() {
+        try {
+            return this.channel.position() + this.buffer.position();
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * Writes all buffered bytes to the channel
+     */
+    private void flushBuffer() {
+        this.buffer.flip();
+        this.writeFully(this.buffer);
+        this.buffer.clear();
+    }
+
+    /**
+     * Writes all remaining bytes of a buffer to the channel
+     *
+     * @param bytes bytes to write
+     */
+    private void writeFully(ByteBuffer bytes) {
+        try {
+            while (bytes.hasRemaining()) this.channel.write(bytes);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * Creates the full path of a node, or of a test or hook in a node
+     *
+     * @param depth depth of the node
+     * @param description description of the test or hook, or null for the path of the node itself
+     * @return descriptions below the root joined with " > ", the same as GreenTeaLatte uses
+     */
+    String getPath(int depth, String description) {
+        StringBuilder path = new StringBuilder();
+        for (int i = 1; i <= depth; i++) {
+            if (path.length() > 0) path.append(" > ");
+            path.append(this.descriptions[i]);
+        }
+        if (description != null) {
+            if (path.length() > 0) path.append(" > ");
+            path.append(description);
+        }
+        return path.toString();
+    }
+
+    /**
+     * Gets the description of a node above the current event
+     *
+     * @param depth depth of the node
+     * @return description of the node
+     */
+    String getDescription(int depth) {
+        return this.descriptions[depth];
+    }
+
+    @Override
+    public void describeStarted(int depth, String description) {
+        if (depth >= this.descriptions.length) {
+            String[] grown = new String[depth * 2];
+            System.arraycopy(this.descriptions, 0, grown, 0, this.descriptions.length);
+            this.descriptions = grown;
+        }
+        this.descriptions[depth] = description;
+        if (depth == 0) {
+            try {
+                this.channel = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+            this.writeHeader();
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (this.channel != null) this.flushBuffer();
+    }
+
+    @Override
+    public void close() {
+        if (this.channel == null) return;
+        this.writeFooter();
+        this.flushBuffer();
+        try {
+            this.channel.close();
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        this.channel = null;
+    }
+}
@@ -0,0 +1,149 @@
+package greentealatte.src;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for the tests, hooks and "describe" nodes of a running tree
+ * <p>
+ * Each event lasts from the start to the end of what it describes, so GC pauses, lock contention and
+ * allocations in a recording line up with the test they happened in. Events are only created when a
+ * recording has enabled their type, checked on a single instance of each type kept for that purpose, so a
+ * run without a recording does not allocate an event for every node. Callers get null instead of an event
+ * then, and only fill in an event when shouldCommit is true. A test, hook or node which started before the
+ * recording enabled its type is not recorded.
+ */
+class FlightRecorderEvents {
+    /**
+     * A test, from the end of its beforeEach hooks until it finished
+     * <p>
+     * The event is committed by the thread running the tree once the test is reported, which is not the thread
+     * of the test when it has a timeout or is async, so the thread which ran the test code is recorded as well.
+     */
+    @Name("greentealatte.Test")
+    @Label("Test")
+    @Category("GreenTeaLatte")
+    @Description("Test of a GreenTeaLatte tree")
+    @StackTrace(false)
+    static class TestEvent extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Outcome")
+        String outcome;
+
+        @Label("Test Thread")
+        @Description("Thread which ran the code of the test, or which started it for an async test")
+        Thread testThread;
+    }
+
+    /**
+     * A hook or fixture teardown
+     */
+    @Name("greentealatte.Hook")
+    @Label("Hook")
+    @Category("GreenTeaLatte")
+    @Description("Hook or fixture teardown of a GreenTeaLatte tree")
+    @StackTrace(false)
+    static class HookEvent extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Hook Type")
+        String hookType;
+
+        @Label("Outcome")
+        String outcome;
+    }
+
+    /**
+     * A "describe" node, including all of its descendants
+     */
+    @Name("greentealatte.Describe")
+    @Label("Describe")
+    @Category("GreenTeaLatte")
+    @Description("Describe node of a GreenTeaLatte tree, including its descendants")
+    @StackTrace(false)
+    static class DescribeEvent extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Outcome")
+        String outcome;
+
+        @Label("Passed Tests")
+        int passed;
+
+        @Label("Pending Tests")
+        int pending;
+
+        @Label("Failed Tests")
+        int failed;
+    }
+
+    // never begun or committed, only asked whether a recording has enabled the type of the event
+    private static final TestEvent     TEST_PROBE     = new TestEvent();
+    private static final HookEvent     HOOK_PROBE     = new HookEvent();
+    private static final DescribeEvent DESCRIBE_PROBE = new DescribeEvent();
+
+    /**
+     * Creates and begins an event for a test, when a recording has enabled test events
+     *
+     * @return the event, or null
+     */
+    static TestEvent beginTest() {
+        if (!TEST_PROBE.isEnabled()) return null;
+        TestEvent event = new TestEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Creates and begins an event for a hook, when a recording has enabled hook events
+     *
+     * @return the event, or null
+     */
+    static HookEvent beginHook() {
+        if (!HOOK_PROBE.isEnabled()) return null;
+        HookEvent event = new HookEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Creates and begins an event for a "describe" node, when a recording has enabled describe events
+     *
+     * @return the event, or null
+     */
+    static DescribeEvent beginDescribe() {
+        if (!DESCRIBE_PROBE.isEnabled()) return null;
+        DescribeEvent event = new DescribeEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Gets the outcome of a hook or "describe" node as it is recorded
+     *
+     * @param hasFailed true if the hook threw, or a test in the node failed
+     * @return the outcome
+     */
+    static String getOutcome(boolean hasFailed) {
+        return hasFailed ? "failed" : "passed";
+    }
+
+    /**
+     * Gets the outcome of a test as it is recorded
+     *
+     * @param outcome outcome of the test
+     * @return the outcome
+     */
+    static String getOutcome(GreenTeaLatteReporter.Outcome outcome) {
+        return outcome == GreenTeaLatteReporter.Outcome.PASSED ? "passed" :
+            outcome == GreenTeaLatteReporter.Outcome.PENDING ? "pending" : "failed";
+    }
+}
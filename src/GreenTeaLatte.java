@@ -1,39 +1,105 @@
 package greentealatte.src;
 
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * A behavoir driven development testing framework
  */
 public class GreenTeaLatte implements GreenTeaLatteInterface {
     // symbols used in ouput
-    private static final String SYMBOL_SUCCESSFUL = "\u2713"; // check mark
-    private static final String SYMBOL_WARNING    = "\u26A0"; // triangle w/ !
-    private static final String SYMBOL_FAILED     = "\u2717"; // cross
+    static final String SYMBOL_SUCCESSFUL = "\u2713"; // check mark
+    static final String SYMBOL_WARNING    = "\u26A0"; // triangle w/ !
+    static final String SYMBOL_FAILED     = "\u2717"; // cross
 
     // GreenTeaLatte forms a tree of testing nodes
     // standard variables for tracking a tree structure
     private String description   = ""; // description for current node
     private GreenTeaLatte parent = null;
     private int depth = 0;
-    private LinkedList<GreenTeaLatte> children = new LinkedList<GreenTeaLatte>();
+    private GreenTeaLatte[] children = NO_CHILDREN; // only the first childCount are used
+    private int childCount           = 0;
+
+    // code of a lazy "describe", run when the node is reached while running, null for eager nodes
+    private Runnable body   = null;
+    private boolean isBuilt = true; // body has run, so the children, tests and hooks are defined
+
+    // a lazy node which is not built yet counts as a user of every suite fixture, until it is built
+    private boolean isHoldingSuiteFixtures = false;
 
     // storage for all tests and hooks in the current node
-    // preserves order in which they are defined
-    private LinkedList<ExtendedRunnable> tests           = new LinkedList<ExtendedRunnable>();
-    private LinkedList<ExtendedRunnable> beforeHooks     = new LinkedList<ExtendedRunnable>();
-    private LinkedList<ExtendedRunnable> beforeEachHooks = new LinkedList<ExtendedRunnable>();
-    private LinkedList<ExtendedRunnable> afterEachHooks  = new LinkedList<ExtendedRunnable>();
-    private LinkedList<ExtendedRunnable> afterHooks      = new LinkedList<ExtendedRunnable>();
+    // preserves order in which they are defined, arrays are shared while empty
+    private ExtendedRunnable[] tests           = NO_RUNNABLES; // only the first testCount are used
+    private int testCount                      = 0;
+    private ExtendedRunnable[] beforeHooks     = NO_RUNNABLES;
+    private ExtendedRunnable[] beforeEachHooks = NO_RUNNABLES;
+    private ExtendedRunnable[] afterEachHooks  = NO_RUNNABLES;
+    private ExtendedRunnable[] afterHooks      = NO_RUNNABLES;
+
+    // empty storage shared by every node
+    private static final GreenTeaLatte[] NO_CHILDREN     = new GreenTeaLatte[0];
+    private static final ExtendedRunnable[] NO_RUNNABLES = new ExtendedRunnable[0];
 
     /**
      * Extension of a runnable which attaches a description to each runnable
      */
-    private class ExtendedRunnable {
+    private static class ExtendedRunnable {
         // storage
         String description;
         Runnable runnable;
 
+        // only selected tests are run, see select
+        boolean isSelected = true;
+
+        // milliseconds the test may run for, 0 for no timeout and -1 to use the timeout of the node
+        long timeoutMillis = -1;
+
+        // result of the previous run when a result file is used, null for new tests
+        ResultFile.Record previousResult = null;
+
         /**
          * creates an ExtendedRunnable
          *
@@ -46,446 +112,3794 @@ public class GreenTeaLatte implements GreenTeaLatteInterface {
         }
     }
 
+    /**
+     * Test whose code returns a future, the test completes when the future does
+     */
+    private static class AsyncRunnable extends ExtendedRunnable {
+        // storage
+        Supplier<CompletableFuture<?>> asyncCode;
+
+        /**
+         * creates an AsyncRunnable
+         *
+         * @param description description of the test
+         * @param asyncCode code which starts the test and returns its future
+         */
+        AsyncRunnable(String description, Supplier<CompletableFuture<?>> asyncCode) {
+            super(description, null);
+            this.asyncCode = asyncCode;
+        }
+    }
+
+    /**
+     * Parameterized test which runs one case for each input, taken from the source while running
+     */
+    private static class EachRunnable extends ExtendedRunnable {
+        // storage
+        Supplier<? extends Iterator<?>> inputs; // creates the inputs again for every run of the tree
+        Consumer<Object> eachCode;
+
+        /**
+         * creates an EachRunnable
+         *
+         * @param template format of the description of each case, see itEach
+         * @param inputs creates the source of the input of each case
+         * @param eachCode code which runs a single case
+         */
+        EachRunnable(String template, Supplier<? extends Iterator<?>> inputs, Consumer<Object> eachCode) {
+            super(template, null);
+            this.inputs   = inputs;
+            this.eachCode = eachCode;
+        }
+    }
+
+    // names of the fixtures declared by "uses" in the current node, null when none are declared
+    private String[] fixtureNames = null;
+
+    // describe fixtures owned by the current node, torn down when the node finishes, guarded by the node
+    private LinkedList<FixtureInstance> fixtureInstances = null;
+
     // testing statistics for current node and all descendants
     private int successfulTests = 0;
     private int pendingTests    = 0;
     private int failedTests     = 0;
 
+    // test selection, see select
+    private boolean isSelected          = true;  // current node or a descendant has a selected test, or no filter
+    private boolean hasSelectedTests    = true;  // current node has a selected test
+    private boolean hasPreviousFailures = false; // a selected test in the subtree failed last run
+
+    // before hooks of the current run have run, they wait for the first test which actually runs
+    private boolean haveBeforeHooksRun = false;
+
+    // milliseconds each test and hook in the current node and all descendants may run for,
+    // 0 for no timeout and -1 to use the timeout of the parent
+    private long timeoutMillis = -1;
+
+    // runs the tests and hooks of the current node which have a timeout, or all of them in a parallel run,
+    // one at a time, created by the first of them
+    private ExecutorService nodeExecutor = null;
+
+    // a test or hook which timed out kept running after being interrupted, so nothing else of the node runs
+    private boolean isAborted = false;
+
+    // time spent in tests and hooks of current node and all descendants
+    private long durationNanos = 0;
+
+    // slowest tests and hooks of current node and all descendants, fastest at the head
+    private PriorityQueue<Timing> slowest = null;
+
+    /**
+     * Duration of a single test or hook execution
+     */
+    private static class Timing {
+        // storage
+        GreenTeaLatte node;
+        String description;
+        String hookType; // null for tests
+        long durationNanos;
+
+        /**
+         * creates a Timing
+         *
+         * @param node node which defined the test or hook
+         * @param description description of the test or hook
+         * @param hookType type of hook, or null for a test
+         * @param durationNanos how long the execution took
+         */
+        Timing(GreenTeaLatte node, String description, String hookType, long durationNanos) {
+            this.node          = node;
+            this.description   = description;
+            this.hookType      = hookType;
+            this.durationNanos = durationNanos;
+        }
+
+        /**
+         * Creates the full path of the test or hook, including the hook type
+         *
+         * @return full path
+         */
+        String getPath() {
+            String path = this.node.getPath(this.description);
+            return this.hookType == null ? path : String.format("%s (%s hook)", path, this.hookType);
+        }
+    }
+
+    /**
+     * Which tests run, and in what order, based on the results of the previous run
+     */
+    public enum RerunMode {
+        ALL,            // runs all tests in the order they were defined
+        FAILED_FIRST,   // runs all tests, but subtrees and tests which failed last run go first
+        FAILED_AND_NEW  // only runs tests which failed last run or were not in the last run
+    }
+
+    /**
+     * How long a single fixture instance is shared, see fixture
+     */
+    public enum FixtureScope {
+        SUITE,    // one instance for the whole tree, torn down once every subtree which uses it has finished
+        DESCRIBE, // one instance for each "describe" which uses it, torn down when that "describe" finishes
+        TEST      // one instance for each test, torn down after the afterEach hooks of the test
+    }
+
+    /**
+     * Definition of a fixture, registered by "fixture"
+     */
+    private static class Fixture {
+        // storage
+        String name;
+        FixtureScope scope;
+        Supplier<?> setup;
+        Consumer<Object> teardown; // null when the fixture needs no teardown
+
+        // instance shared by the whole tree, only used by suite fixtures, guarded by the fixture
+        FixtureInstance suiteInstance = null;
+
+        // amount of selected nodes which use the suite fixture and have not finished yet, guarded by the fixture
+        int users = 0;
+
+        /**
+         * creates a Fixture
+         *
+         * @param name name of the fixture
+         * @param scope how long a single instance is shared
+         * @param setup creates an instance
+         * @param teardown cleans up an instance, or null
+         */
+        Fixture(String name, FixtureScope scope, Supplier<?> setup, Consumer<Object> teardown) {
+            this.name     = name;
+            this.scope    = scope;
+            this.setup    = setup;
+            this.teardown = teardown;
+        }
+    }
+
+    /**
+     * Single instance of a fixture, created the first time it is used
+     */
+    private static class FixtureInstance {
+        // storage
+        Fixture fixture;
+        Object value      = null;
+        boolean isCreated = false;
+
+        /**
+         * creates a FixtureInstance
+         *
+         * @param fixture definition of the fixture
+         */
+        FixtureInstance(Fixture fixture) {
+            this.fixture = fixture;
+        }
+
+        /**
+         * Gets the value of the instance, creating it on first use
+         *
+         * @return the value
+         */
+        synchronized Object get() {
+            if (!this.isCreated) {
+                this.value     = this.fixture.setup.get();
+                this.isCreated = true;
+            }
+            return this.value;
+        }
+    }
+
+    // benchmark results are compared against this so the JIT cannot remove the benchmarked work
+    private static volatile Object benchmarkSink = new Object();
+
+    // a benchmark sample repeats the benchmark until it takes at least this long
+    private static final long BENCHMARK_SAMPLE_NANOS = 1000000;
+
+    // times the clock is read back to back to find what timing a single operation costs
+    private static final int TIMER_OVERHEAD_SAMPLES = 1000;
+
+    // a counterexample stops shrinking after this many steps, in case shrinking never converges
+    private static final int MAX_PROPERTY_SHRINKS = 1000;
+
+    // checks the samples of properties, its own pool so the pool of the test running "forAll" is never used
+    private static final ForkJoinPool PROPERTY_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    // spreads the seeds of samples and properties over all longs
+    private static final long SEED_GAMMA = 0x9E3779B97F4A7C15L;
+
+    // measures the CPU time and allocations of the thread running a performance assertion
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    // differences from a baseline up to these amounts are noise, never regressions
+    private static final long REGRESSION_NOISE_NANOS = 100000;
+    private static final long REGRESSION_NOISE_BYTES = 1024;
+
+    // result file used when sharding without setting one
+    static final String DEFAULT_RESULT_FILE = "greentealatte-results.txt";
+
+    // creates the threads which run tests and hooks off the runner thread, virtual threads when the JDK supports them
+    private static final ThreadFactory TEST_THREAD_FACTORY = createTestThreadFactory();
+
+    // milliseconds a test or hook which timed out is given to stop once interrupted
+    private static final long INTERRUPT_GRACE_MILLIS = 1000;
+
+    // why the tests and hooks of an aborted node are skipped
+    private static final String ABORTED_REASON = "a test or hook of the describe timed out and is still running";
+
     // full tree state
     private GTLState state;
 
     private class GTLState {
-        GreenTeaLatte currentNode = null;
+        // node which "describe", "it" and hooks are added to, per thread so lazy subtrees can be built in parallel,
+        // unset for the root since the value of a thread local keeps its key, and so the whole tree, alive
+        private ThreadLocal<GreenTeaLatte> currentNode = new ThreadLocal<GreenTeaLatte>();
+
+        // "describe" bodies only run once the node is reached while running
+        boolean isLazy = Boolean.getBoolean("greentealatte.lazy");
+
+        // lazy node whose body is running on each thread, the only time the tree can be changed while running
+        ThreadLocal<GreenTeaLatte> buildingNode = new ThreadLocal<GreenTeaLatte>();
+
+        // selection of the current run, applied to lazy nodes once they are built
+        Pattern grepPattern                            = null;
+        Predicate<String[]> selection                  = null;
+        Map<String, ResultFile.Record> previousResults = null;
+
+        // previous results summed up for the key of each node, only kept for lazy trees
+        Map<String, Long> previousNodeDurations = null;
+        Set<String> previouslyFailedNodes       = null;
 
         // indentation information, used in output
         String singleIndentation = "\t";
 
+        // receives all output, defaults to a ConsoleReporter when the tree starts running
+        GreenTeaLatteReporter reporter = null;
+
+        // receive the same output as the reporter, such as machine readable reports
+        LinkedList<GreenTeaLatteReporter> additionalReporters = new LinkedList<GreenTeaLatteReporter>();
+
+        // amount of slowest tests and hooks listed after the test summary, 0 lists none
+        int slowestReportSize = 0;
+
+        // benchmark configuration
+        int benchmarkWarmupSamples      = 10;
+        int benchmarkMeasurementSamples = 20;
+
+        // property configuration, the seed of a run is chosen when the tree starts running unless set
+        int propertySamples = 100;
+        Long seed           = null;
+        long runSeed        = 0;
+
+        // regular expression which test paths must contain to be run, null runs all tests
+        String grep = null;
+
+        // file storing the results of each run, null does not store results
+        String resultFile   = null;
+        RerunMode rerunMode = null;
+
+        // open result file for the current run
+        ResultFile results = null;
+
+        // file storing the baseline of each "assertNoRegression" call, null when not set
+        String baselineFile = null;
+
+        // open baseline file for the current run
+        BaselineFile baselines = null;
+
+        // replace the baselines of the tests measured by a run, see setBaselineRefresh
+        boolean isRefreshingBaselines = false;
+
+        // fraction a measurement may be over its baseline before warning, and before failing
+        double regressionWarning   = 0.1;
+        double regressionTolerance = 0.5;
+
+        // shard of the tree run by this process, a count of 0 runs the whole tree
+        int shardIndex = 0;
+        int shardCount = 0;
+
+        // fixtures by name, see fixture
+        HashMap<String, Fixture> fixtures = new HashMap<String, Fixture>();
+
+        // node whose hooks and tests are running on each thread, used to find fixtures from hooks
+        ThreadLocal<GreenTeaLatte> runningNode = new ThreadLocal<GreenTeaLatte>();
+
+        // amount of async tests within a node which can be in flight at once
+        int asyncConcurrency = 16;
+
+        // amount of threads used to run sibling subtrees, 1 runs everything serially
+        int parallelism = 1;
+
+        // amount of failed tests after which no more tests start, 0 runs every test
+        // unless set, the amount of a run is read from "greentealatte.bail" when the tree starts
+        Integer bail = null;
+        int runBail  = 0;
+
+        // failed tests of the current run, counted across threads for bail
+        AtomicInteger failedTestCount = new AtomicInteger();
+
+        // subtrees expected to finish sooner run first, see getChildrenInRunOrder
+        boolean isShortestFirst = Boolean.getBoolean("greentealatte.shortestFirst");
+
+        // expected duration of a test without a previous result, the mean of the previous results
+        long fallbackDurationNanos = 1;
+
+        // timeout of tests and hooks in nodes without one, read from "greentealatte.timeout" when the tree starts
+        long defaultTimeoutMillis = 0;
+
         // variables for tracking tests
-        boolean isRunningAllTests   = false;
-        boolean isRunningTest       = false;
-        boolean wasAssertTestCalled = false;
-        boolean hasFailedTest       = false;
+        volatile boolean isRunningAllTests = false;
+
+        // each thread tracks the test it is currently executing, null while outside of a test
+        ThreadLocal<TestExecution> currentTest = new ThreadLocal<TestExecution>();
+
+        /**
+         * Gets the node which "describe", "it" and hooks are added to on the current thread
+         *
+         * @return the node, the root unless a "describe" body is running
+         */
+        GreenTeaLatte getCurrentNode() {
+            GreenTeaLatte node = this.currentNode.get();
+            return node != null ? node : GreenTeaLatte.this;
+        }
 
-        // exception handling
-        AssertionError currentAssertionError;
+        /**
+         * Sets the node which "describe", "it" and hooks are added to on the current thread
+         *
+         * @param node the node, the root once no "describe" body is running
+         */
+        void setCurrentNode(GreenTeaLatte node) {
+            if (node == GreenTeaLatte.this) this.currentNode.remove();
+            else this.currentNode.set(node);
+        }
     }
 
     /**
-     * Is root checker
-     *
-     * @return true if this is the root node
+     * State of a single test execution
+     * <p>
+     * Kept separate from the tree state so tests in different subtrees can execute concurrently.
      */
-    private boolean isRoot() {
-        return this.depth == 0;
+    private static class TestExecution {
+        volatile boolean wasAssertTestCalled = false;
+        volatile boolean hasFailedTest       = false;
+
+        // node which defined the test
+        GreenTeaLatte node = null;
+
+        // additional lines reported below the test, such as benchmark results
+        LinkedList<String> details = null;
+
+        // measurements of "assertNoRegression" calls, compared with their baselines once the test finishes
+        LinkedList<BaselineFile.Measurement> measurements = null;
+
+        // test fixtures created for the test, torn down after the test
+        LinkedList<FixtureInstance> fixtures = null;
+
+        // flight recorder event of the test, begun when the test starts, null without a recording
+        FlightRecorderEvents.TestEvent event = FlightRecorderEvents.beginTest();
+
+        /**
+         * creates a TestExecution
+         *
+         * @param node node which defined the test
+         */
+        TestExecution(GreenTeaLatte node) {
+            this.node = node;
+        }
+
+        /**
+         * Gets the instance of a test fixture for this test, creating it on first use
+         *
+         * @param fixture definition of the fixture
+         * @return the instance
+         */
+        synchronized FixtureInstance getFixture(Fixture fixture) {
+            if (this.fixtures == null) this.fixtures = new LinkedList<FixtureInstance>();
+            for (FixtureInstance instance : this.fixtures) {
+                if (instance.fixture == fixture) return instance;
+            }
+            FixtureInstance instance = new FixtureInstance(fixture);
+            this.fixtures.add(instance);
+            return instance;
+        }
+
+        /**
+         * Adds a line to be reported below the test
+         *
+         * @param detail line to report
+         */
+        void addDetail(String detail) {
+            if (this.details == null) this.details = new LinkedList<String>();
+            this.details.add(detail);
+        }
+    }
+
+    /**
+     * Async test which has been started but not yet reported
+     */
+    private static class AsyncTest {
+        // storage
+        ExtendedRunnable test;
+        TestExecution execution;
+        long startTime          = System.nanoTime();
+        CompletableFuture<?> future = null;
+        Throwable throwable = null; // set when starting the test threw
+
+        /**
+         * creates an AsyncTest
+         *
+         * @param node node which defined the test
+         * @param test the async test
+         */
+        AsyncTest(GreenTeaLatte node, ExtendedRunnable test) {
+            this.test      = test;
+            this.execution = new TestExecution(node);
+        }
+    }
+
+    /**
+     * Reporter which records events until another reporter is ready for them, then passes them straight through
+     * <p>
+     * Events may arrive on the thread running the subtree while the parent starts streaming from another thread,
+     * so every event and the switch to streaming are guarded by the reporter.
+     */
+    private static class RecordingReporter implements GreenTeaLatteReporter {
+        // storage
+        private LinkedList<Consumer<GreenTeaLatteReporter>> events = new LinkedList<Consumer<GreenTeaLatteReporter>>();
+        private GreenTeaLatteReporter target = null; // receives events straight away once set
+
+        /**
+         * Replays all recorded events in the order they were received, then passes later events straight through
+         *
+         * @param reporter reporter to receive the events
+         */
+        synchronized void streamTo(GreenTeaLatteReporter reporter) {
+            if (this.target != null) return;
+            for (Consumer<GreenTeaLatteReporter> event : this.events) event.accept(reporter);
+            this.events = null;
+            this.target = reporter;
+        }
+
+        /**
+         * Records an event, or passes it on when streaming
+         *
+         * @param event event to record
+         */
+        private synchronized void record(Consumer<GreenTeaLatteReporter> event) {
+            if (this.target != null) {
+                event.accept(this.target);
+            } else {
+                this.events.add(event);
+            }
+        }
+
+        @Override
+        public void describeStarted(int depth, String description) {
+            this.record(reporter -> reporter.describeStarted(depth, description));
+        }
+
+        @Override
+        public void hookStarted(int depth, String description) {
+            this.record(reporter -> reporter.hookStarted(depth, description));
+        }
+
+        @Override
+        public void hookFinished(int depth, String description, long durationNanos) {
+            this.record(reporter -> reporter.hookFinished(depth, description, durationNanos));
+        }
+
+        @Override
+        public void hookFailed(int depth, String description, Throwable throwable) {
+            this.record(reporter -> reporter.hookFailed(depth, description, throwable));
+        }
+
+        @Override
+        public void testFinished(int depth, String description, Outcome outcome, long durationNanos,
+            Throwable throwable) {
+            this.record(reporter -> reporter.testFinished(depth, description, outcome, durationNanos, throwable));
+        }
+
+        @Override
+        public void testDetailed(int depth, String detail) {
+            this.record(reporter -> reporter.testDetailed(depth, detail));
+        }
+
+        @Override
+        public void describeFinished(int depth, int passed, int pending, int failed, long durationNanos) {
+            this.record(reporter -> reporter.describeFinished(depth, passed, pending, failed, durationNanos));
+        }
+
+        @Override
+        public void slowReported(int rank, String path, long durationNanos) {
+            this.record(reporter -> reporter.slowReported(rank, path, durationNanos));
+        }
+
+        @Override
+        public void flush() {}
+    }
+
+    /**
+     * Reporter which passes every event on to several reporters in order
+     */
+    private static class ReporterGroup implements GreenTeaLatteReporter {
+        // storage
+        private GreenTeaLatteReporter[] reporters;
+
+        /**
+         * Creates a ReporterGroup
+         *
+         * @param reporters reporters to receive every event
+         */
+        ReporterGroup(List<GreenTeaLatteReporter> reporters) {
+            this.reporters = reporters.toArray(new GreenTeaLatteReporter[0]);
+        }
+
+        @Override
+        public void describeStarted(int depth, String description) {
+            for (GreenTeaLatteReporter reporter : this.reporters) reporter.describeStarted(depth, description);
+        }
+
+        @Override
+        public void hookStarted(int depth, String description) {
+            for (GreenTeaLatteReporter reporter : this.reporters) reporter.hookStarted(depth, description);
+        }
+
+        @Override
+        public void hookFinished(int depth, String description, long durationNanos) {
+            for (GreenTeaLatteReporter reporter : this.reporters) {
+                reporter.hookFinished(depth, description, durationNanos);
+            }
+        }
+
+        @Override
+        public void hookFailed(int depth, String description, Throwable throwable) {
+            for (GreenTeaLatteReporter reporter : this.reporters) reporter.hookFailed(depth, description, throwable);
+        }
+
+        @Override
+        public void testFinished(int depth, String description, Outcome outcome, long durationNanos,
+            Throwable throwable) {
+            for (GreenTeaLatteReporter reporter : this.reporters) {
+                reporter.testFinished(depth, description, outcome, durationNanos, throwable);
+            }
+        }
+
+        @Override
+        public void testDetailed(int depth, String detail) {
+            for (GreenTeaLatteReporter reporter : this.reporters) reporter.testDetailed(depth, detail);
+        }
+
+        @Override
+        public void describeFinished(int depth, int passed, int pending, int failed, long durationNanos) {
+            for (GreenTeaLatteReporter reporter : this.reporters) {
+                reporter.describeFinished(depth, passed, pending, failed, durationNanos);
+            }
+        }
+
+        @Override
+        public void slowReported(int rank, String path, long durationNanos) {
+            for (GreenTeaLatteReporter reporter : this.reporters) reporter.slowReported(rank, path, durationNanos);
+        }
+
+        @Override
+        public void flush() {
+            for (GreenTeaLatteReporter reporter : this.reporters) reporter.flush();
+        }
+
+        @Override
+        public void close() {
+            for (GreenTeaLatteReporter reporter : this.reporters) reporter.close();
+        }
     }
 
     /**
-     * Increments the successful test counter for current node and all parents
+     * Reporter which holds back the header of a node until the subtree reports a hook or test
+     * <p>
+     * Lazy nodes are only known to have selected tests once built, and parameterized tests only once
+     * their cases are taken, so subtrees which turn out to run none are left out of the output entirely,
+     * the same as unselected subtrees.
      */
-    private void incrementSuccessfulTests() {
-        this.successfulTests++;
-        if (!this.isRoot()) this.parent.incrementSuccessfulTests();
+    private static class DeferredHeaderReporter implements GreenTeaLatteReporter {
+        // storage
+        private GreenTeaLatteReporter reporter;
+        private int depth          = -1;   // depth of the node, -1 until its header arrives
+        private String description = null; // null once the header is reported
+
+        /**
+         * Creates a DeferredHeaderReporter
+         *
+         * @param reporter reporter to receive output once the header is reported
+         */
+        DeferredHeaderReporter(GreenTeaLatteReporter reporter) {
+            this.reporter = reporter;
+        }
+
+        /**
+         * Reports the held back header, if any
+         */
+        private void reportHeader() {
+            if (this.description == null) return;
+            this.reporter.describeStarted(this.depth, this.description);
+            this.description = null;
+        }
+
+        @Override
+        public void describeStarted(int depth, String description) {
+            if (this.depth == -1) {
+                this.depth       = depth;
+                this.description = description;
+                return;
+            }
+            this.reportHeader();
+            this.reporter.describeStarted(depth, description);
+        }
+
+        @Override
+        public void hookStarted(int depth, String description) {
+            this.reportHeader();
+            this.reporter.hookStarted(depth, description);
+        }
+
+        @Override
+        public void hookFinished(int depth, String description, long durationNanos) {
+            this.reporter.hookFinished(depth, description, durationNanos);
+        }
+
+        @Override
+        public void hookFailed(int depth, String description, Throwable throwable) {
+            this.reporter.hookFailed(depth, description, throwable);
+        }
+
+        @Override
+        public void testFinished(int depth, String description, Outcome outcome, long durationNanos,
+            Throwable throwable) {
+            this.reportHeader();
+            this.reporter.testFinished(depth, description, outcome, durationNanos, throwable);
+        }
+
+        @Override
+        public void testDetailed(int depth, String detail) {
+            this.reportHeader();
+            this.reporter.testDetailed(depth, detail);
+        }
+
+        @Override
+        public void describeFinished(int depth, int passed, int pending, int failed, long durationNanos) {
+            // nothing in the subtree was reported, so neither is the node
+            if (depth == this.depth && this.description != null) return;
+            this.reporter.describeFinished(depth, passed, pending, failed, durationNanos);
+        }
+
+        @Override
+        public void slowReported(int rank, String path, long durationNanos) {
+            this.reporter.slowReported(rank, path, durationNanos);
+        }
+
+        @Override
+        public void flush() {
+            this.reporter.flush();
+        }
+    }
+
+    /**
+     * Error thrown by a failed "assertTest" call
+     * <p>
+     * Only the native backtrace is captured when the assertion fails, which the JVM does without creating any
+     * stack trace elements. The elements are created and filtered the first time the stack trace is requested,
+     * which only happens when the failure is reported. Walking the frames with a depth limited StackWalker
+     * instead was measured to make failing tests about ten times slower, since every walked frame is resolved
+     * to its class and method up front.
+     */
+    private static class TestFailure extends AssertionError {
+        // never serialized, only inherited from AssertionError
+        private static final long serialVersionUID = 1L;
+
+        // true once the stack trace has been filtered
+        private boolean isFiltered = false;
+
+        /**
+         * creates a TestFailure
+         */
+        TestFailure() {}
+
+        /**
+         * creates a TestFailure which explains why the assertion failed
+         *
+         * @param message reason for the failure
+         */
+        TestFailure(String message) {
+            super(message);
+        }
+
+        /**
+         * Filters the stack trace, on first use only
+         */
+        private synchronized void filterOnce() {
+            if (this.isFiltered) return;
+            this.isFiltered = true;
+            filterStackTrace(this);
+        }
+
+        /**
+         * Gets the stack trace without filtering it first
+         *
+         * @return unfiltered stack trace
+         */
+        StackTraceElement[] getUnfilteredStackTrace() {
+            return super.getStackTrace();
+        }
+
+        @Override
+        public StackTraceElement[] getStackTrace() {
+            this.filterOnce();
+            return super.getStackTrace();
+        }
+
+        @Override
+        public void printStackTrace(PrintStream stream) {
+            this.filterOnce();
+            super.printStackTrace(stream);
+        }
+
+        @Override
+        public void printStackTrace(PrintWriter writer) {
+            this.filterOnce();
+            super.printStackTrace(writer);
+        }
+    }
+
+    /**
+     * Runs a subtree on a fork join pool, recording its output until the parent is ready to report it
+     */
+    private static class SubtreeTask extends RecursiveAction {
+        // never serialized, only inherited from RecursiveAction
+        private static final long serialVersionUID = 1L;
+
+        // storage
+        GreenTeaLatte node;
+        GreenTeaLatteReporter reporter;
+        Throwable throwable = null;
+
+        /**
+         * creates a SubtreeTask
+         *
+         * @param node root of the subtree
+         * @param reporter reporter to receive output
+         */
+        SubtreeTask(GreenTeaLatte node, GreenTeaLatteReporter reporter) {
+            this.node     = node;
+            this.reporter = reporter;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                this.node.runNode(this.reporter);
+            } catch (Throwable throwable) {
+                // kept until the parent joins, so the original error reaches the caller of run
+                this.throwable = throwable;
+            }
+        }
+    }
+
+    /**
+     * Is root checker
+     *
+     * @return true if this is the root node
+     */
+    private boolean isRoot() {
+        return this.depth == 0;
+    }
+
+    /**
+     * Adds the statistics of a child which has finished running to the current node
+     * <p>
+     * Each node only ever updates its own counters, so subtrees running on different
+     * threads never write to the same node.
+     *
+     * @param child child which has completed all of its tests
+     */
+    private void addChildStatistics(GreenTeaLatte child) {
+        this.successfulTests += child.successfulTests;
+        this.pendingTests    += child.pendingTests;
+        this.failedTests     += child.failedTests;
+        this.durationNanos   += child.durationNanos;
+        if (child.slowest != null) {
+            for (Timing timing : child.slowest) this.recordTiming(timing);
+        }
+    }
+
+    /**
+     * Adds the duration of a test or hook execution to the current node
+     *
+     * @param description description of the test or hook
+     * @param hookType type of hook, or null for a test
+     * @param durationNanos how long the execution took
+     */
+    private void recordTiming(String description, String hookType, long durationNanos) {
+        this.durationNanos += durationNanos;
+        if (this.state.slowestReportSize <= 0) return;
+        if (this.slowest != null && this.slowest.size() >= this.state.slowestReportSize &&
+            this.slowest.peek().durationNanos >= durationNanos) {
+            // would not make the list, skip creating a timing
+            return;
+        }
+        this.recordTiming(new Timing(this, description, hookType, durationNanos));
+    }
+
+    /**
+     * Keeps a timing if it is one of the slowest of the current node
+     *
+     * @param timing timing to keep
+     */
+    private void recordTiming(Timing timing) {
+        if (this.slowest == null) {
+            this.slowest = new PriorityQueue<Timing>((a, b) -> Long.compare(a.durationNanos, b.durationNanos));
+        }
+        this.slowest.add(timing);
+        if (this.slowest.size() > this.state.slowestReportSize) this.slowest.poll();
+    }
+
+    /**
+     * Creates the full path of a test or hook in the current node
+     * <p>
+     * The path joins the descriptions of every node below the root with " > ".
+     *
+     * @param description description of the test or hook, or null for the path of the node itself
+     * @return full path
+     */
+    String getPath(String description) {
+        StringBuilder path = new StringBuilder();
+        this.appendPath(path);
+        if (description != null) {
+            if (path.length() > 0) path.append(" > ");
+            path.append(description);
+        }
+        return path.toString();
+    }
+
+    /**
+     * Appends the path of the current node to a builder
+     *
+     * @param path builder to append to
+     */
+    private void appendPath(StringBuilder path) {
+        if (this.isRoot()) return;
+        this.parent.appendPath(path);
+        if (path.length() > 0) path.append(" > ");
+        path.append(this.description);
+    }
+
+    /**
+     * Creates the key of a test or node in the current node, as used by the result and baseline files
+     * <p>
+     * Unlike the full path, the key of every test is unique, even when descriptions contain " > ".
+     *
+     * @param description description of the test, or null for the key of the node itself
+     * @return key, see ResultFile.getKey
+     */
+    private String getResultKey(String description) {
+        StringBuilder key = new StringBuilder();
+        this.appendResultKey(key);
+        if (description != null) {
+            if (!this.isRoot()) key.append('\t');
+            ResultFile.escape(key, description);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Appends the key of the current node to a builder
+     *
+     * @param key builder to append to
+     */
+    private void appendResultKey(StringBuilder key) {
+        if (this.isRoot()) return;
+        this.parent.appendResultKey(key);
+        if (!this.parent.isRoot()) key.append('\t');
+        ResultFile.escape(key, this.description);
+    }
+
+    /**
+     * Rethrows a throwable caught on another thread without wrapping unchecked throwables
+     *
+     * @param throwable throwable to rethrow
+     */
+    private static void rethrow(Throwable throwable) {
+        if (throwable instanceof Error) throw (Error) throwable;
+        if (throwable instanceof RuntimeException) throw (RuntimeException) throwable;
+        throw new Error(throwable);
+    }
+
+    /**
+     * Creates a string that represents the full indentation
+     *
+     * @param additionalIndents allows for adding additional indentation
+     * @return full indentation
+     */
+    private String getFullIdentation(int additionalIndents) {
+        int indentAmount = this.depth + additionalIndents;
+        StringBuilder fullIndentation = new StringBuilder();
+
+        for (int i = 0; i < indentAmount; i++) fullIndentation.append(this.state.singleIndentation);
+        return fullIndentation.toString();
+    };
+
+    /**
+     * Checks if a class is GreenTeaLatte or one of its nested classes
+     *
+     * @param className name of the class
+     * @return true if the class is part of the framework
+     */
+    private static boolean isFromFramework(String className) {
+        return className.startsWith(GreenTeaLatte.class.getName()) &&
+               (className.length() == GreenTeaLatte.class.getName().length() ||
+                className.charAt(GreenTeaLatte.class.getName().length()) == '$');
+    }
+
+    /**
+     * Checks if a stack frame is where the framework starts running a subtree or test on another thread
+     *
+     * @param className name of the class of the frame
+     * @param methodName name of the method of the frame
+     * @return true if the element is the entry of a fork join task, test thread, test executor task,
+     * concurrent test worker, or daemon run
+     */
+    private static boolean isThreadEntry(String className, String methodName) {
+        return className.equals(SubtreeTask.class.getName()) ||
+               className.equals(DaemonRunner.class.getName()) ||
+               (className.equals(GreenTeaLatte.class.getName()) &&
+                (methodName.startsWith("lambda$executeOnNodeThread$") ||
+                 methodName.startsWith("lambda$getTestExecutor$") ||
+                 methodName.startsWith("lambda$runConcurrentRound$")));
+    }
+
+    /**
+     * removes uncessary information from the stack trace for easier debugging
+     *
+     * @param  Throwable throwable to filter
+     */
+    private static void filterStackTrace(Throwable throwable) {
+        StackTraceElement[] stackTrace         = throwable instanceof TestFailure ?
+            ((TestFailure) throwable).getUnfilteredStackTrace() : throwable.getStackTrace();
+        StackTraceElement[] filteredStackTrace = new StackTraceElement[stackTrace.length];
+        int filteredLength = 0;
+        for (StackTraceElement element : stackTrace) {
+            if (isThreadEntry(element.getClassName(), element.getMethodName())) {
+                // everything below belongs to the thread running the subtree or test
+                break;
+            }
+            if (!isFromFramework(element.getClassName())) {
+                // the stack element was not generated from this class
+                filteredStackTrace[filteredLength++] = element;
+            }
+        }
+        throwable.setStackTrace(Arrays.copyOf(filteredStackTrace, filteredLength));
+    }
+
+    /**
+     * Executes the runnable but filters the stack trace for easier debugging
+     *
+     * @param runnable the runnable which need to execute
+     * @param execution state of the test execution, or null for a hook
+     * @return null if no errors occured, or the altered throwable if an error did occur
+     */
+    private Throwable executeWithFilteredStackTrace(Runnable runnable, TestExecution execution) {
+        try {
+            runnable.run();
+            return null; // successful
+        } catch (Throwable throwable) {
+            if (execution != null) {
+                // ensuring that an error will result in a failed test rather than a pending test
+                execution.hasFailedTest = true;
+            }
+            // filtering the stack trace, failed assertions filter their own when first reported
+            if (!(throwable instanceof TestFailure)) filterStackTrace(throwable);
+            return throwable;
+        }
+    }
+
+    /**
+     * Creates the factory for threads which run tests that have a timeout
+     * <p>
+     * Virtual threads are used when the JDK has them, otherwise daemon threads are used, so a test
+     * that never finishes cannot keep the JVM from exiting.
+     *
+     * @return thread factory
+     */
+    private static ThreadFactory createTestThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException exception) {
+            return runnable -> {
+                Thread thread = new Thread(runnable, "greentealatte-test");
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    /**
+     * Finds the timeout that applies to a test or hook of the current node
+     *
+     * @param test test or hook to find the timeout for
+     * @return timeout in milliseconds, 0 for no timeout
+     */
+    private long getTimeoutMillis(ExtendedRunnable test) {
+        if (test.timeoutMillis >= 0) return test.timeoutMillis;
+        for (GreenTeaLatte node = this; node != null; node = node.parent) {
+            if (node.timeoutMillis >= 0) return node.timeoutMillis;
+        }
+        return this.state.defaultTimeoutMillis;
+    }
+
+    /**
+     * Executes a test, failing it if it runs for longer than its timeout
+     *
+     * @param testCode code of the test to execute
+     * @param timeoutMillis timeout of the test, 0 for no timeout
+     * @param execution state of the test execution
+     * @return null if no errors occured, or the altered throwable if an error did occur
+     */
+    private Throwable executeTest(Runnable testCode, long timeoutMillis, TestExecution execution) {
+        if (timeoutMillis == 0 && this.state.parallelism == 1) {
+            // restored rather than removed, the thread may be in the middle of another test which joined on a pool
+            TestExecution previousTest = this.state.currentTest.get();
+            this.state.currentTest.set(execution);
+            if (execution.event != null) execution.event.testThread = Thread.currentThread();
+            try {
+                return this.executeWithFilteredStackTrace(testCode, execution);
+            } finally {
+                this.state.currentTest.set(previousTest);
+            }
+        }
+        return this.executeOnNodeThread("Test", testCode, timeoutMillis, execution);
+    }
+
+    /**
+     * Executes a hook or fixture teardown, failing it if it runs for longer than its timeout
+     *
+     * @param hookCode code of the hook to execute
+     * @param timeoutMillis timeout of the hook, 0 for no timeout
+     * @return null if no errors occured, or the altered throwable if an error did occur
+     */
+    private Throwable executeHook(Runnable hookCode, long timeoutMillis) {
+        if (timeoutMillis == 0 && this.state.parallelism == 1) {
+            return this.executeWithFilteredStackTrace(hookCode, null);
+        }
+        return this.executeOnNodeThread("Hook", hookCode, timeoutMillis, null);
+    }
+
+    /**
+     * Executes a test or hook on the thread of the current node, failing it if it runs past its timeout
+     * <p>
+     * In a parallel run every test and hook runs on the thread of its node rather than on the fork join pool,
+     * since code which joins on the pool, such as a parallel stream, lets the pool run other subtrees on the
+     * joining thread in the middle of the test.
+     * <p>
+     * The calling thread watches the execution. When the timeout is reached, the stack of the node thread at
+     * that moment is reported and the thread is interrupted. The next test or hook only starts once the thread
+     * has stopped. A thread which does not stop within a grace period is reported as left running, and the node
+     * is aborted so none of its remaining tests or hooks run alongside it, the rest of the tree continues.
+     * The remaining tests are reported as pending and the remaining hooks as failed hooks.
+     *
+     * @param kind "Test" or "Hook", used in the error
+     * @param code code of the test or hook to execute
+     * @param timeoutMillis timeout of the test or hook, 0 for no timeout
+     * @param execution state of the test execution, or null for a hook
+     * @return null if no errors occured, or the altered throwable if an error did occur
+     */
+    private Throwable executeOnNodeThread(String kind, Runnable code, long timeoutMillis, TestExecution execution) {
+        if (this.nodeExecutor == null) this.nodeExecutor = Executors.newSingleThreadExecutor(TEST_THREAD_FACTORY);
+        AtomicReference<Thread> thread = new AtomicReference<Thread>();
+        Future<Throwable> future       = this.nodeExecutor.submit(() -> {
+            thread.set(Thread.currentThread());
+            this.state.runningNode.set(this);
+            this.state.currentTest.set(execution);
+            if (execution != null && execution.event != null) execution.event.testThread = Thread.currentThread();
+            try {
+                return this.executeWithFilteredStackTrace(code, execution);
+            } finally {
+                this.state.currentTest.remove();
+                this.state.runningNode.remove();
+            }
+        });
+        try {
+            return timeoutMillis == 0 ? future.get() : future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException exception) {
+            return exception.getCause();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            return exception;
+        } catch (TimeoutException exception) {
+            // stuck, the stack is taken below
+        }
+
+        // the execution is stuck, reporting where it is stuck at
+        String message = String.format("%s timed out after %d ms", kind, timeoutMillis);
+        StackTraceElement[] stackTrace = thread.get() != null ? thread.get().getStackTrace() : new StackTraceElement[0];
+        int userFrames = 0;
+        while (userFrames < stackTrace.length && !isFromFramework(stackTrace[userFrames].getClassName())) {
+            userFrames++;
+        }
+        if (execution != null) execution.hasFailedTest = true;
+        future.cancel(true);
+
+        // waiting for the interrupted thread, a new one is used for the next test or hook either way
+        ExecutorService executor = this.nodeExecutor;
+        this.nodeExecutor        = null;
+        executor.shutdown();
+        try {
+            this.isAborted = !executor.awaitTermination(INTERRUPT_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            this.isAborted = true;
+        }
+        if (this.isAborted) {
+            message += String.format(", thread %s is left running as it did not stop when interrupted, "
+                + "so the rest of the describe was skipped", thread.get());
+        }
+        AssertionError error = new AssertionError(message);
+        error.setStackTrace(Arrays.copyOf(stackTrace, userFrames));
+        return error;
+    }
+
+    /**
+     * Create a child node
+     *
+     * @param parent parent of node being created
+     * @param nodeDescription description for the node
+     */
+    private GreenTeaLatte(GreenTeaLatte parent, String nodeDescription) {
+        this.description = nodeDescription;
+        this.parent      = parent;
+        this.depth       = parent.depth + 1;
+        this.state       = parent.state;
+    }
+
+    /**
+     * Creates a GreenTeaLatte instance
+     */
+    public GreenTeaLatte() {
+        this.description       = "Brewing a Green Tea Latte:";
+        this.parent            = null;
+        this.state             = new GTLState();
+    }
+
+    /**
+     * Creates a GreenTeaLatte instance with a description
+     *
+     * @param description description for entire testing tree
+     */
+    public GreenTeaLatte(String description) {
+        this.description       = description;
+        this.parent            = null;
+        this.state             = new GTLState();
+    }
+
+    /**
+     * Sets the output indentation to the desired amount of spaces
+     *
+     * @param amountOfSpaces amount of spaces
+     */
+    public void setIndentationToSpaces(int amountOfSpaces) {
+        // indentation information only kept on the root node
+        String newIndentation = "";
+
+        for (int i = 0; i < amountOfSpaces; i++) newIndentation += " ";
+        this.state.singleIndentation = newIndentation;
+    }
+
+    /**
+     * Sets the reporter which receives all output of the tree
+     * <p>
+     * Defaults to a ConsoleReporter using the indentation set by setIndentationToSpaces.
+     *
+     * @param reporter reporter to receive output
+     */
+    public void setReporter(GreenTeaLatteReporter reporter) {
+        this.state.reporter = reporter;
+    }
+
+    /**
+     * Adds a reporter which receives the same output as the reporter set by setReporter
+     * <p>
+     * Used to write machine readable reports, such as a JUnitXmlReporter or JsonLinesReporter, while
+     * still printing to the console. The "greentealatte.junit" and "greentealatte.jsonl" system
+     * properties add these reporters for the given file paths without any code changes.
+     *
+     * @param reporter reporter to receive output
+     */
+    public void addReporter(GreenTeaLatteReporter reporter) {
+        this.state.additionalReporters.add(reporter);
+    }
+
+    /**
+     * Only runs tests whose full path contains a match for a regular expression
+     * <p>
+     * The full path joins the descriptions of every "describe" above the test and the test itself
+     * with " > ", for example "className > methodName > should pass this test". Hooks only run for
+     * nodes with a selected test in their subtree, and subtrees without selected tests are skipped entirely.
+     * When not set, the "greentealatte.grep" system property is used instead.
+     *
+     * @param pattern regular expression to search for, or null to run all tests
+     */
+    public void setGrep(String pattern) {
+        if (pattern != null) Pattern.compile(pattern); // failing early for invalid patterns
+        this.state.grep = pattern;
+    }
+
+    /**
+     * Stores the outcome and duration of every test in a file, so later runs can use them
+     * <p>
+     * Results are stored by the full path of each test. Tests which did not run keep their previous
+     * result, results of tests which are no longer in the tree are dropped. When not set, the
+     * "greentealatte.results" system property is used instead.
+     *
+     * @param file path of the file, or null to not store results
+     */
+    public void setResultFile(String file) {
+        this.state.resultFile = file;
+    }
+
+    /**
+     * Sets which tests run, and in what order, based on the results stored in the result file
+     * <p>
+     * Hooks still run for every node with a selected test in its subtree. When not set, the "greentealatte.rerun"
+     * system property is used instead, holding the name of a mode such as FAILED_FIRST, and an unknown name
+     * throws an IllegalArgumentException naming the property.
+     *
+     * @param mode rerun mode, defaults to ALL
+     */
+    public void setRerunMode(RerunMode mode) {
+        this.state.rerunMode = mode;
+    }
+
+    /**
+     * Only runs one shard of the tree, so the tree can be split over multiple processes
+     * <p>
+     * Each "describe" directly below the root is assigned to a shard as a whole, balanced by the
+     * durations stored in the result file when they are available. Tests defined directly on the root
+     * run in the first shard. Each shard writes its results to a partial result file next to the result
+     * file, which ShardRunner.merge combines. When not set, the "greentealatte.shard" system property is
+     * used instead, holding the index and count such as "0/4", and an invalid value throws an
+     * IllegalArgumentException naming the property.
+     *
+     * @param shardIndex index of the shard to run, starting at 0
+     * @param shardCount total amount of shards
+     */
+    public void setShard(int shardIndex, int shardCount) {
+        if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+            throw new IllegalArgumentException("Shard index must be at least 0 and less than the shard count.");
+        }
+        this.state.shardIndex = shardIndex;
+        this.state.shardCount = shardCount;
+    }
+
+    /**
+     * Estimates how long the selected and unselected tests of the current node and its descendants take
+     *
+     * @param fallbackNanos duration used for tests without a previous result
+     * @return expected duration in nanoseconds
+     */
+    private long getExpectedDurationNanos(long fallbackNanos) {
+        if (!this.isBuilt) {
+            Long previousDuration = null;
+            if (this.state.previousNodeDurations != null) {
+                previousDuration = this.state.previousNodeDurations.get(this.getResultKey(null));
+            }
+            return previousDuration != null ? previousDuration : fallbackNanos;
+        }
+        long expectedDuration = 0;
+        for (int i = 0; i < this.testCount; i++) {
+            ExtendedRunnable test = this.tests[i];
+            expectedDuration += test.previousResult != null ? test.previousResult.durationNanos : fallbackNanos;
+        }
+        for (int i = 0; i < this.childCount; i++) {
+            expectedDuration += this.children[i].getExpectedDurationNanos(fallbackNanos);
+        }
+        return expectedDuration;
+    }
+
+    /**
+     * Gets the mean duration of the previous results, used for tests which have none
+     *
+     * @param previousResults results of the previous run by key
+     * @return mean duration in nanoseconds, 1 when there are no previous results
+     */
+    private static long getFallbackDurationNanos(Map<String, ResultFile.Record> previousResults) {
+        if (previousResults == null || previousResults.isEmpty()) return 1;
+        long totalNanos = 0;
+        for (ResultFile.Record record : previousResults.values()) totalNanos += record.durationNanos;
+        return Math.max(1, totalNanos / previousResults.size());
+    }
+
+    /**
+     * Assigns each child of the root to a shard
+     * <p>
+     * Children are assigned from the longest expected duration to the shortest, each to the shard with
+     * the least expected duration so far. Every process computes the same assignment from the same tree
+     * and result file.
+     *
+     * @param previousResults results of the previous run by key
+     * @param shardCount total amount of shards
+     * @return shard index of each child, in definition order
+     */
+    private int[] assignShards(Map<String, ResultFile.Record> previousResults, int shardCount) {
+        long fallbackNanos = this.state.fallbackDurationNanos;
+
+        Integer[] order          = new Integer[this.childCount];
+        long[] expectedDurations = new long[this.childCount];
+        for (int index = 0; index < this.childCount; index++) {
+            order[index]             = index;
+            expectedDurations[index] = this.children[index].getExpectedDurationNanos(fallbackNanos);
+        }
+        // longest first, ties keep definition order
+        Arrays.sort(order, (a, b) -> Long.compare(expectedDurations[b], expectedDurations[a]));
+
+        int[] shards      = new int[order.length];
+        long[] shardLoads = new long[shardCount];
+        for (int child : order) {
+            int leastLoaded = 0;
+            for (int shard = 1; shard < shardCount; shard++) {
+                if (shardLoads[shard] < shardLoads[leastLoaded]) leastLoaded = shard;
+            }
+            shards[child]            = leastLoaded;
+            shardLoads[leastLoaded] += expectedDurations[child];
+        }
+        return shards;
+    }
+
+    /**
+     * Unselects every subtree of the root which is not assigned to the shard of this process
+     *
+     * @param previousResults results of the previous run by key
+     */
+    private void selectShard(Map<String, ResultFile.Record> previousResults) {
+        int[] shards = this.assignShards(previousResults, this.state.shardCount);
+        for (int index = 0; index < this.childCount; index++) {
+            if (shards[index] != this.state.shardIndex) this.children[index].isSelected = false;
+        }
+        if (this.state.shardIndex == 0) return;
+        this.hasSelectedTests = false;
+        for (int i = 0; i < this.testCount; i++) this.tests[i].isSelected = false;
+    }
+
+    /**
+     * Creates the descriptions from the first "describe" down to a test in the current node
+     *
+     * @param description description of the test
+     * @return descriptions, excluding the root
+     */
+    private String[] getPathSegments(String description) {
+        String[] segments = new String[this.depth + 1];
+        segments[this.depth] = description;
+        for (GreenTeaLatte node = this; !node.isRoot(); node = node.parent) segments[node.depth - 1] = node.description;
+        return segments;
+    }
+
+    /**
+     * Marks which tests in the current node and its descendants will run
+     * <p>
+     * Without a selection every node is selected, including nodes without tests, so their hooks run
+     * and they are reported the same as when the tree is run without any filter.
+     *
+     * @param selection returns true for the path segments of each test that should run, or null to select all tests
+     * @param previousResults results of the previous run by key, or null when not stored
+     * @return true if the current node or a descendant has a selected test
+     */
+    private boolean select(Predicate<String[]> selection, Map<String, ResultFile.Record> previousResults) {
+        this.hasSelectedTests    = false;
+        this.hasPreviousFailures = false;
+        ResultFile results       = this.state.results;
+        if (!this.isBuilt) {
+            // tests are unknown until the node is built, so it is selected again once built
+            String key = this.getResultKey(null);
+            if (results != null) results.markUnknown(key, true);
+            this.hasPreviousFailures = this.state.previouslyFailedNodes != null &&
+                this.state.previouslyFailedNodes.contains(key);
+            this.isSelected = true;
+            if (this.state.grepPattern != null) {
+                // without hitting the end of the path, no longer path starting with it can match either
+                Matcher matcher = this.state.grepPattern.matcher(this.getPath(null) + " > ");
+                this.isSelected = matcher.find() || matcher.hitEnd();
+            }
+            return this.isSelected;
+        }
+        for (int i = 0; i < this.testCount; i++) {
+            ExtendedRunnable test = this.tests[i];
+            if (test instanceof EachRunnable) {
+                // cases are only known while running, so they are selected one by one then
+                if (results != null) results.markParameterized(this.getResultKey(null));
+                this.hasSelectedTests = true;
+                continue;
+            }
+            String[] segments = selection != null || previousResults != null ?
+                this.getPathSegments(test.description) : null;
+            test.previousResult = previousResults != null ? previousResults.get(ResultFile.getKey(segments)) : null;
+            test.isSelected     = selection == null || selection.test(segments);
+            if (results != null && test.previousResult != null) results.markExisting(test.previousResult);
+
+            this.hasSelectedTests    |= test.isSelected;
+            this.hasPreviousFailures |= test.isSelected && hasFailedBefore(test);
+        }
+        this.isSelected = this.hasSelectedTests || selection == null;
+        for (int i = 0; i < this.childCount; i++) {
+            this.isSelected          |= this.children[i].select(selection, previousResults);
+            this.hasPreviousFailures |= this.children[i].hasPreviousFailures;
+        }
+        return this.isSelected;
+    }
+
+    /**
+     * Checks if a test failed in the previous run
+     *
+     * @param test test to check
+     * @return true if the stored result of the test is a failure
+     */
+    private static boolean hasFailedBefore(ExtendedRunnable test) {
+        return test.previousResult != null && test.previousResult.outcome == GreenTeaLatteReporter.Outcome.FAILED;
+    }
+
+    /**
+     * Sums up the previous results of each node, so lazy nodes can be ordered and sharded before they are built
+     *
+     * @param previousResults results of the previous run by key
+     */
+    private void indexPreviousNodes(Map<String, ResultFile.Record> previousResults) {
+        this.state.previousNodeDurations = new HashMap<String, Long>();
+        this.state.previouslyFailedNodes = new HashSet<String>();
+        for (ResultFile.Record record : previousResults.values()) {
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < record.segments.length - 1; i++) {
+                if (i > 0) key.append('\t');
+                ResultFile.escape(key, record.segments[i]);
+                String nodeKey = key.toString();
+                this.state.previousNodeDurations.merge(nodeKey, record.durationNanos, Long::sum);
+                if (record.outcome == GreenTeaLatteReporter.Outcome.FAILED) {
+                    this.state.previouslyFailedNodes.add(nodeKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the body of a lazy node, defining its children, tests and hooks, then selects its tests
+     * <p>
+     * Children defined by the body are lazy as well, so only one level is built at a time.
+     *
+     * @throws Throwable any error that occured in the body
+     */
+    private void build() {
+        GreenTeaLatte previousNode = this.state.getCurrentNode();
+        this.state.setCurrentNode(this);
+        this.state.buildingNode.set(this);
+        try {
+            this.body.run();
+        } finally {
+            this.state.setCurrentNode(previousNode);
+            this.state.buildingNode.remove();
+        }
+        this.isBuilt = true;
+        if (this.state.results != null) this.state.results.markUnknown(this.getResultKey(null), false);
+        this.select(this.state.selection, this.state.previousResults);
+        this.countSubtreeFixtureUsers();
+        if (this.isHoldingSuiteFixtures) {
+            // the node now counts for the fixtures it declared, which happened above
+            this.isHoldingSuiteFixtures = false;
+            this.holdSuiteFixtures(-1);
+        }
+    }
+
+    /**
+     * Drops the children, tests and hooks of a lazy node which has been reported
+     * <p>
+     * The body is kept, so the node is built again the next time the tree runs.
+     */
+    private void release() {
+        this.children        = NO_CHILDREN;
+        this.childCount      = 0;
+        this.tests           = NO_RUNNABLES;
+        this.testCount       = 0;
+        this.beforeHooks     = NO_RUNNABLES;
+        this.beforeEachHooks = NO_RUNNABLES;
+        this.afterEachHooks  = NO_RUNNABLES;
+        this.afterHooks      = NO_RUNNABLES;
+        this.fixtureNames    = null;
+        this.timeoutMillis   = -1;
+        this.isBuilt         = false;
+    }
+
+    /**
+     * Orders the children of the current node for running
+     * <p>
+     * When running shortest first, children are ordered by their expected duration, ties keeping
+     * definition order. Children with previous failures still run before the others in FAILED_FIRST mode.
+     *
+     * @return children in the order they should run
+     */
+    private ArrayList<GreenTeaLatte> getChildrenInRunOrder() {
+        ArrayList<GreenTeaLatte> ordered = new ArrayList<GreenTeaLatte>(this.childCount);
+        for (int i = 0; i < this.childCount; i++) {
+            GreenTeaLatte child = this.children[i];
+            if (!child.isSelected) continue;
+            if (this.state.rerunMode == RerunMode.FAILED_FIRST && !child.hasPreviousFailures) continue;
+            ordered.add(child);
+        }
+        int previouslyFailed = 0;
+        if (this.state.rerunMode == RerunMode.FAILED_FIRST) {
+            previouslyFailed = ordered.size();
+            for (int i = 0; i < this.childCount; i++) {
+                GreenTeaLatte child = this.children[i];
+                if (child.isSelected && !child.hasPreviousFailures) ordered.add(child);
+            }
+        }
+        if (this.state.isShortestFirst && ordered.size() > 1) {
+            HashMap<GreenTeaLatte, Long> expectedDurations = new HashMap<GreenTeaLatte, Long>();
+            for (GreenTeaLatte child : ordered) {
+                expectedDurations.put(child, child.getExpectedDurationNanos(this.state.fallbackDurationNanos));
+            }
+            Comparator<GreenTeaLatte> shortestFirst = Comparator.comparingLong(expectedDurations::get);
+            ordered.subList(0, previouslyFailed).sort(shortestFirst);
+            ordered.subList(previouslyFailed, ordered.size()).sort(shortestFirst);
+        }
+        return ordered;
+    }
+
+    /**
+     * Orders the selected tests of the current node for running
+     *
+     * @return tests in the order they should run
+     */
+    private ArrayList<ExtendedRunnable> getTestsInRunOrder() {
+        ArrayList<ExtendedRunnable> ordered = new ArrayList<ExtendedRunnable>(this.testCount);
+        for (int i = 0; i < this.testCount; i++) {
+            ExtendedRunnable test = this.tests[i];
+            if (!test.isSelected) continue;
+            if (this.state.rerunMode == RerunMode.FAILED_FIRST && !hasFailedBefore(test)) continue;
+            ordered.add(test);
+        }
+        if (this.state.rerunMode == RerunMode.FAILED_FIRST) {
+            for (int i = 0; i < this.testCount; i++) {
+                ExtendedRunnable test = this.tests[i];
+                if (test.isSelected && !hasFailedBefore(test)) ordered.add(test);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Adds a child to the end of the children of the current node
+     *
+     * @param child child to add
+     */
+    private void addChild(GreenTeaLatte child) {
+        if (this.childCount == this.children.length) {
+            this.children = Arrays.copyOf(this.children, Math.max(4, this.childCount * 2));
+        }
+        this.children[this.childCount++] = child;
+    }
+
+    /**
+     * Adds a test to the end of the tests of the current node
+     *
+     * @param test test to add
+     */
+    private void addTest(ExtendedRunnable test) {
+        if (this.testCount == this.tests.length) {
+            this.tests = Arrays.copyOf(this.tests, Math.max(4, this.testCount * 2));
+        }
+        this.tests[this.testCount++] = test;
+    }
+
+    /**
+     * Adds a hook to the end of a list of hooks
+     * <p>
+     * Nodes rarely have more than a few hooks, so the list is kept at its exact size.
+     *
+     * @param hooks hooks defined so far
+     * @param hook hook to add
+     * @return the new list of hooks
+     */
+    private static ExtendedRunnable[] addHook(ExtendedRunnable[] hooks, ExtendedRunnable hook) {
+        ExtendedRunnable[] added = Arrays.copyOf(hooks, hooks.length + 1);
+        added[hooks.length] = hook;
+        return added;
+    }
+
+    /**
+     * Sets the amount of slowest tests and hooks listed after the test summary
+     * <p>
+     * Durations are measured with System.nanoTime for every test and hook, the default of 0 lists none.
+     *
+     * @param amount amount of tests and hooks to list
+     */
+    public void setSlowestReportSize(int amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Slowest report size cannot be negative.");
+        }
+        this.state.slowestReportSize = amount;
+    }
+
+    /**
+     * Defers running the code of each "describe" until the tree reaches that node while running
+     * <p>
+     * Only the nodes being run are built, and each subtree is dropped again once it has been reported,
+     * so large generated trees start faster and use less memory. Subtrees which have no selected tests
+     * once built are left out of the output. The code of a "describe" then runs during "run", and runs
+     * again on every run. Must be set before the first "describe", the "greentealatte.lazy" system
+     * property enables it by default.
+     *
+     * @param isLazy true to defer "describe" code until the node is run
+     */
+    public void setLazy(boolean isLazy) {
+        if (this.childCount > 0) {
+            throw new IllegalStateException("Cannot call 'setLazy' after 'describe'.");
+        }
+        this.state.isLazy = isLazy;
+    }
+
+    /**
+     * Stops starting tests once an amount of tests have failed, so a broken run finishes early
+     * <p>
+     * Tests which already started still finish and are reported, and the afterEach, after and fixture
+     * teardowns of nodes which already started still run. Tests which have not started are reported as
+     * pending, without running any more hooks. When not set, the "greentealatte.bail" system property is
+     * read every time the tree runs.
+     *
+     * @param failures amount of failed tests to stop after, 0 runs every test
+     */
+    public void setBail(int failures) {
+        if (failures < 0) {
+            throw new IllegalArgumentException("Bail cannot be negative.");
+        }
+        this.state.bail = failures;
+    }
+
+    /**
+     * Runs the "describe" subtrees of each node in order of how long they are expected to take, shortest first
+     * <p>
+     * Expected durations come from the result file, tests without a previous result count as the mean
+     * duration of the stored results. Without a result file, subtrees with fewer tests run first.
+     * The "greentealatte.shortestFirst" system property enables it by default.
+     *
+     * @param isShortestFirst true to run the shortest subtrees first, false for definition order
+     */
+    public void setShortestFirst(boolean isShortestFirst) {
+        this.state.isShortestFirst = isShortestFirst;
+    }
+
+    /**
+     * Checks if enough tests have failed to stop starting tests, see setBail
+     *
+     * @return true if no more tests should start
+     */
+    private boolean hasBailed() {
+        return this.state.runBail > 0 && this.state.failedTestCount.get() >= this.state.runBail;
+    }
+
+    /**
+     * Sets the amount of threads used to run sibling "describe" subtrees
+     * <p>
+     * Subtrees run in parallel on a fork join pool, while the output is still printed
+     * in the order that the tree was defined. Tests and hooks within a single node
+     * always run serially, on a thread of the node rather than on the pool, so a test
+     * which uses a parallel stream cannot have other subtrees run in the middle of it.
+     * The default of 1 runs the whole tree on the calling thread.
+     *
+     * @param threads amount of threads, must be at least 1
+     */
+    public void setParallelism(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1.");
+        }
+        this.state.parallelism = threads;
+    }
+
+    /**
+     * Creates a new node (branch) in the testing code with a description of it
+     * <p>
+     * {@code GreenTeaLatte deliciousLatte = new GreenTeaLatte();
+     * deliciousLatte.describe("className", () -> {
+     *     deliciousLatte.describe("methodName", () -> {
+     *         // define tests and hooks for testing methodName
+     *     });
+     * });}
+     *
+     * @param nodeDescription description of the new node
+     * @param nodeCode code for the tests in the current node
+     */
+    public void describe(String nodeDescription, Runnable nodeCode) {
+        GreenTeaLatte currentNode = this.state.getCurrentNode();
+        if (this.state.isRunningAllTests && this.state.buildingNode.get() == null) {
+            throw new IllegalStateException("Cannot call 'describe' within a test or hook runnable.");
+        }
+        // creating the new child with appropriate parent, and add to tree
+        GreenTeaLatte child = new GreenTeaLatte(currentNode, nodeDescription);
+
+        currentNode.addChild(child);
+
+        if (this.state.isLazy) {
+            // child code runs once the child is reached while running, see build
+            child.body    = nodeCode;
+            child.isBuilt = false;
+            return;
+        }
+
+        // update current branch
+        this.state.setCurrentNode(child);
+
+        // process child code
+        nodeCode.run();
+
+        // child code complete, reset current branch
+        this.state.setCurrentNode(currentNode);
+    }
+
+    /**
+     * Creates and attaches a pending test to the current node
+     * <p>
+     * A pending test is a test that does not have the test code written yet.
+     * Pending tests will result in a warning, but not an error.
+     * <p>
+     * This is meant to be called with the runnable of a describe method, but can be be
+     * called on the root node.
+     *
+     * @param testDescription description of the pending test
+     */
+    public void it(String testDescription) {
+        GreenTeaLatte currentNode = this.state.getCurrentNode();
+        if (this.state.isRunningAllTests && this.state.buildingNode.get() == null) {
+            throw new IllegalStateException("Cannot call 'it' within a test or hook runnable.");
+        }
+        // add test to current level
+        currentNode.addTest(new ExtendedRunnable(testDescription, () -> {}));
+    }
+
+    /**
+     * Creates and attaches a test to the current node
+     * <p>
+     * This is meant to be called with the runnable of a describe method, but can be be
+     * called on the root node.
+     * <p>
+     * Not including a "assertTest" call within a test will act as a pending test and result in a warning.
+     *
+     * @param testDescription description of the test
+     * @param testCode code for the test
+     */
+    public void it(String testDescription, Runnable testCode) {
+        GreenTeaLatte currentNode = this.state.getCurrentNode();
+        if (this.state.isRunningAllTests && this.state.buildingNode.get() == null) {
+            throw new IllegalStateException("Cannot call 'it' within a test or hook runnable.");
+        }
+        // add test to current level
+        currentNode.addTest(new ExtendedRunnable(testDescription, testCode));
+    }
+
+    /**
+     * Creates and attaches a test with its own timeout to the current node
+     * <p>
+     * Same as "it" without a timeout, but the test fails when it runs for longer than the timeout.
+     *
+     * @param testDescription description of the test
+     * @param timeoutMillis milliseconds the test may run for, 0 for no timeout
+     * @param testCode code for the test
+     */
+    public void it(String testDescription, long timeoutMillis, Runnable testCode) {
+        GreenTeaLatte currentNode = this.state.getCurrentNode();
+        if (this.state.isRunningAllTests && this.state.buildingNode.get() == null) {
+            throw new IllegalStateException("Cannot call 'it' within a test or hook runnable.");
+        }
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative.");
+        }
+        // add test to current level
+        ExtendedRunnable test = new ExtendedRunnable(testDescription, testCode);
+        test.timeoutMillis = timeoutMillis;
+        currentNode.addTest(test);
+    }
+
+    /**
+     * Creates and attaches a parameterized test to the current node, which runs once for each input
+     * <p>
+     * Each case is reported as a separate test described by String.format(descriptionTemplate, input),
+     * inputs which are arrays fill in one argument per element. Inputs are taken from the iterator
+     * while the tree runs, and no test is stored per case, so cases can come from a generator of any
+     * size. The iterator is used up by running the tree, running it again fails the test, see itEach with a
+     * supplier for trees which run more than once. When taking an input or formatting its description
+     * throws, a failed test described by the template is reported and no further cases are taken.
+     * <p>
+     * {@code deliciousLatte.itEach("should square %d", List.of(1, 2, 3).iterator(), number -> {
+     *     deliciousLatte.assertTest(number * number >= number);
+     * });}
+     *
+     * @param descriptionTemplate format of the description of each case
+     * @param inputs inputs of the cases
+     * @param testCode code which runs a single case
+     */
+    public <T> void itEach(String descriptionTemplate, Iterator<T> inputs, Consumer<? super T> testCode) {
+        boolean[] isUsedUp = new boolean[1];
+        this.addEachTest(descriptionTemplate, () -> {
+            if (isUsedUp[0]) {
+                throw new IllegalStateException("The inputs of 'itEach' were used up by a previous run, " +
+                    "pass a supplier of a stream to run the tree again.");
+            }
+            isUsedUp[0] = true;
+            return inputs;
+        }, testCode);
+    }
+
+    /**
+     * Creates and attaches a parameterized test to the current node, which runs once for each input
+     * <p>
+     * The same as itEach with an iterator, the stream is only consumed while the tree runs.
+     *
+     * @param descriptionTemplate format of the description of each case
+     * @param inputs inputs of the cases
+     * @param testCode code which runs a single case
+     */
+    public <T> void itEach(String descriptionTemplate, Stream<T> inputs, Consumer<? super T> testCode) {
+        this.itEach(descriptionTemplate, inputs.iterator(), testCode);
+    }
+
+    /**
+     * Creates and attaches a parameterized test to the current node, which runs once for each input
+     * <p>
+     * The same as itEach with an iterator, but every run of the tree takes its cases from a new stream,
+     * so a tree which is run more than once, such as by DaemonRunner, runs every case each time.
+     * <p>
+     * {@code deliciousLatte.itEach("should square %d", () -> IntStream.range(0, 1000).boxed(), number -> {
+     *     deliciousLatte.assertTest(number * number >= number);
+     * });}
+     *
+     * @param descriptionTemplate format of the description of each case
+     * @param inputs creates the inputs of the cases, once for every run
+     * @param testCode code which runs a single case
+     */
+    public <T> void itEach(String descriptionTemplate, Supplier<? extends Stream<T>> inputs,
+        Consumer<? super T> testCode) {
+        this.addEachTest(descriptionTemplate, () -> inputs.get().iterator(), testCode);
+    }
+
+    /**
+     * Attaches a parameterized test to the current node, see itEach
+     *
+     * @param descriptionTemplate format of the description of each case
+     * @param inputs creates the inputs of the cases, once for every run
+     * @param testCode code which runs a single case
+     */
+    @SuppressWarnings("unchecked")
+    private <T> void addEachTest(String descriptionTemplate, Supplier<? extends Iterator<T>> inputs,
+        Consumer<? super T> testCode) {
+        GreenTeaLatte currentNode = this.state.getCurrentNode();
+        if (this.state.isRunningAllTests && this.state.buildingNode.get() == null) {
+            throw new IllegalStateException("Cannot call 'itEach' within a test or hook runnable.");
+        }
+        // add test to current level
+        currentNode.addTest(new EachRunnable(descriptionTemplate, inputs, (Consumer<Object>) testCode));
+    }
+
+    /**
+     * Creates and attaches an async test to the current node
+     * <p>
+     * The test code starts the test and returns a future which completes when the test is done, the
+     * test fails if the future completes exceptionally. Consecutive async tests in a node are in flight
+     * at the same time, up to the limit set by setAsyncConcurrency. Each is reported, and has its afterEach
+     * hooks run, once its future completes, in the order the tests were started.
+     * <p>
+     * The beforeEach hooks of a test run when it starts, so while tests are in flight together, the beforeEach
+     * hooks of later tests run before the afterEach hooks of earlier ones. Async tests must not depend on state
+     * which hooks set up and clean up for each test, unless the limit is set to 1. Test fixtures are created
+     * for every test and are safe to use.
+     * <p>
+     * "assertTest" can be called from the test code, and from completion stages which run on the
+     * executor returned by getTestExecutor.
+     *
+     * @param testDescription description of the test
+     * @param testCode code which starts the test
+     */
+    public void itAsync(String testDescription, Supplier<CompletableFuture<?>> testCode) {
+        GreenTeaLatte currentNode = this.state.getCurrentNode();
+        if (this.state.isRunningAllTests && this.state.buildingNode.get() == null) {
+            throw new IllegalStateException("Cannot call 'itAsync' within a test or hook runnable.");
+        }
+        // add test to current level
+        ExtendedRunnable test = new AsyncRunnable(testDescription, testCode);
+        currentNode.addTest(test);
+    }
+
+    /**
+     * Sets the amount of async tests within a node which can be in flight at once
+     * <p>
+     * With a limit of 1, each async test finishes and runs its afterEach hooks before the next one starts.
+     *
+     * @param limit amount of tests, must be at least 1
+     */
+    public void setAsyncConcurrency(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Async concurrency must be at least 1.");
+        }
+        this.state.asyncConcurrency = limit;
+    }
+
+    /**
+     * Gets an executor for completion stages of the test that is currently running
+     * <p>
+     * Tasks run on the common fork join pool, but "assertTest" calls within them count towards
+     * the test which called this method, for example
+     * {@code fetch().thenAcceptAsync(value -> latte.assertTest(value > 0), latte.getTestExecutor())}.
+     * Stages which run directly after such a task, on the same thread, count towards the test as well.
+     *
+     * @return executor which runs tasks as part of the current test
+     */
+    public Executor getTestExecutor() {
+        TestExecution test = this.state.currentTest.get();
+        if (test == null) {
+            throw new IllegalStateException("'getTestExecutor' must be called within an 'it' call");
+        }
+        return task -> ForkJoinPool.commonPool().execute(() -> {
+            TestExecution previousTest = this.state.currentTest.get();
+            this.state.currentTest.set(test);
+            try {
+                task.run();
+            } finally {
+                this.state.currentTest.set(previousTest);
+            }
+        });
+    }
+
+    /**
+     * Sets how long each test may run for before it fails
+     * <p>
+     * When called within the runnable of a describe method, the timeout applies to every test in that
+     * node and its descendants. When called on the root node outside of any describe, it applies to the
+     * whole tree. Hooks of those nodes have the same timeout. Tests and hooks with a timeout run on a thread
+     * of their node, one at a time, a test that times out is reported as failed with its stack at the moment
+     * of the timeout, and the remaining tests continue running once its thread stops. A thread which does not
+     * stop within a second of being interrupted is reported and left running, and the rest of its node is
+     * skipped. A hook that times out stops the run like any other failing hook. When no timeout is set, the
+     * "greentealatte.timeout" system property is used instead, read when the tree starts running.
+     *
+     * @param timeoutMillis milliseconds each test and hook may run for, 0 for no timeout
+     */
+    public void setTimeout(long timeoutMillis) {
+        GreenTeaLatte currentNode = this.state.getCurrentNode();
+        if (this.state.isRunningAllTests && this.state.buildingNode.get() == null) {
+            throw new IllegalStateException("Cannot call 'setTimeout' within a test or hook runnable.");
+        }
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative.");
+        }
+        currentNode.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Evaluates the result from a test expression
+     * <p>
+     * This must be called within a test (inside a runnable passed to the `it` method)
+     * used to determine if a test failed or passed
+     *
+     * @param resultFromTestExpression boolean from a user defined test expression
+     */
+    public void assertTest(Boolean resultFromTestExpression) {
+        this.assertTest(resultFromTestExpression.booleanValue());
+    }
+
+    /**
+     * Evaluates the result from a test expression
+     * <p>
+     * This must be called within a test (inside a runnable passed to the `it` method)
+     * used to determine if a test failed or passed. A passing result does not allocate,
+     * so this can be called in tight loops.
+     *
+     * @param resultFromTestExpression boolean from a user defined test expression
+     */
+    public void assertTest(boolean resultFromTestExpression) {
+        TestExecution test = this.state.currentTest.get();
+        if (test == null) {
+            throw new IllegalStateException("All 'assertTest' calls must be made within an 'it' call");
+        }
+        // only writing once, repeated volatile writes are costly in loops
+        if (!test.wasAssertTestCalled) test.wasAssertTestCalled = true;
+        if (!resultFromTestExpression) {
+            test.hasFailedTest = true;
+            throw new TestFailure();
+        }
+    }
+
+    /**
+     * Asserts that code finishes within an amount of wall time
+     * <p>
+     * The code runs once on the calling thread, and its measurements are reported below the test.
+     * This must be called within a test.
+     *
+     * @param maxMillis most milliseconds the code may take
+     * @param code code to measure
+     */
+    public void assertFasterThan(long maxMillis, Runnable code) {
+        BaselineFile.Measurement measurement = this.measurePerformance("assertFasterThan", code);
+        this.assertPerformance(measurement.wallNanos <= maxMillis * 1000000, String.format(
+            "took %.3f ms, more than %d ms", measurement.wallNanos / 1e6, maxMillis));
+    }
+
+    /**
+     * Asserts that code uses at most an amount of CPU time on the calling thread
+     * <p>
+     * Unlike wall time, CPU time does not include time spent waiting, such as for locks or I/O.
+     * This must be called within a test.
+     *
+     * @param maxMillis most milliseconds of CPU time the code may use
+     * @param code code to measure
+     * @throws UnsupportedOperationException if the JVM cannot measure CPU time of the calling thread
+     */
+    public void assertCpuTimeAtMost(long maxMillis, Runnable code) {
+        BaselineFile.Measurement measurement = this.measurePerformance("assertCpuTimeAtMost", code);
+        if (measurement.cpuNanos < 0) {
+            throw new UnsupportedOperationException("CPU time cannot be measured on this thread.");
+        }
+        this.assertPerformance(measurement.cpuNanos <= maxMillis * 1000000, String.format(
+            "used %.3f ms of CPU time, more than %d ms", measurement.cpuNanos / 1e6, maxMillis));
+    }
+
+    /**
+     * Asserts that code allocates at most an amount of bytes on the calling thread
+     * <p>
+     * Allocations made by other threads, such as tasks the code starts, are not counted.
+     * This must be called within a test.
+     *
+     * @param maxBytes most bytes the code may allocate
+     * @param code code to measure
+     * @throws UnsupportedOperationException if the JVM cannot measure allocations of the calling thread
+     */
+    public void assertAllocatesAtMost(long maxBytes, Runnable code) {
+        BaselineFile.Measurement measurement = this.measurePerformance("assertAllocatesAtMost", code);
+        if (measurement.allocatedBytes < 0) {
+            throw new UnsupportedOperationException("Allocations cannot be measured on this thread.");
+        }
+        this.assertPerformance(measurement.allocatedBytes <= maxBytes, String.format(
+            "allocated %,d bytes, more than %,d bytes", measurement.allocatedBytes, maxBytes));
+    }
+
+    /**
+     * Asserts that code has not become slower, or allocates more, than the baseline stored for the test
+     * <p>
+     * The wall time, CPU time and allocated bytes of the code are compared with the baseline in the baseline
+     * file once the test finishes. A measurement over its baseline by more than the warning fraction is
+     * reported with a warning below the test, by more than the tolerance it fails the test. The baseline
+     * is the median of the first measurements of the test in separate runs which passed, see setBaselineFile.
+     * This must be called within a test.
+     *
+     * @param code code to measure
+     * @throws IllegalStateException if no baseline file is set
+     */
+    public void assertNoRegression(Runnable code) {
+        if (this.state.baselines == null) {
+            throw new IllegalStateException("A baseline file must be set to use 'assertNoRegression'");
+        }
+        TestExecution test                   = this.getRunningTest("assertNoRegression");
+        BaselineFile.Measurement measurement = measure(code);
+        synchronized (test) {
+            if (test.measurements == null) test.measurements = new LinkedList<BaselineFile.Measurement>();
+            test.measurements.add(measurement);
+        }
+        test.wasAssertTestCalled = true;
+    }
+
+    /**
+     * Stores the baseline measurement of each "assertNoRegression" call in a file
+     * <p>
+     * Baselines are stored by the full path of each test. The measurements of the first five runs in which
+     * the test passed are stored, and their median becomes its baseline, which is not replaced afterwards.
+     * Measurements of failed tests are never stored. When not set, the "greentealatte.baseline" system
+     * property is used instead.
+     *
+     * @param file path of the file, or null to not store baselines
+     */
+    public void setBaselineFile(String file) {
+        this.state.baselineFile = file;
+    }
+
+    /**
+     * Sets whether the next runs replace the baselines of the tests they measure
+     * <p>
+     * While refreshing, measurements are not compared with the stored baselines. The first passing
+     * measurement of each test in a run replaces its baseline, and later runs which are not refreshing
+     * add samples to it as usual. When not set, the "greentealatte.refreshBaselines" system property
+     * is used instead.
+     *
+     * @param isRefreshing true to record new baselines
+     */
+    public void setBaselineRefresh(boolean isRefreshing) {
+        this.state.isRefreshingBaselines = isRefreshing;
+    }
+
+    /**
+     * Sets how far a measurement may be over its baseline before warning, and before failing the test
+     * <p>
+     * Both are fractions of the baseline, so 0.1 allows a measurement 10% over its baseline.
+     *
+     * @param warning fraction over the baseline which is reported with a warning, defaults to 0.1
+     * @param tolerance fraction over the baseline which fails the test, defaults to 0.5
+     */
+    public void setRegressionTolerance(double warning, double tolerance) {
+        if (warning < 0 || tolerance < warning) {
+            throw new IllegalArgumentException("Tolerance must be at least the warning, which cannot be negative.");
+        }
+        this.state.regressionWarning   = warning;
+        this.state.regressionTolerance = tolerance;
+    }
+
+    /**
+     * Gets the execution of the test running on the current thread
+     *
+     * @param methodName name of the method which requires a test, used in the error message
+     * @return the execution
+     * @throws IllegalStateException if no test is running on the current thread
+     */
+    private TestExecution getRunningTest(String methodName) {
+        TestExecution test = this.state.currentTest.get();
+        if (test == null) {
+            throw new IllegalStateException("All '" + methodName + "' calls must be made within an 'it' call");
+        }
+        return test;
+    }
+
+    /**
+     * Measures code for a performance assertion, reporting the measurement below the running test
+     *
+     * @param methodName name of the assertion, used in the error message
+     * @param code code to measure
+     * @return the measurement
+     */
+    private BaselineFile.Measurement measurePerformance(String methodName, Runnable code) {
+        TestExecution test                   = this.getRunningTest(methodName);
+        BaselineFile.Measurement measurement = measure(code);
+        synchronized (test) {
+            test.addDetail(formatMeasurement(measurement));
+        }
+        return measurement;
+    }
+
+    /**
+     * Applies the result of a performance assertion to the running test
+     *
+     * @param isWithinLimit true when the measurement is within its limit
+     * @param failureMessage reason for the failure
+     */
+    private void assertPerformance(boolean isWithinLimit, String failureMessage) {
+        TestExecution test = this.state.currentTest.get();
+        if (!test.wasAssertTestCalled) test.wasAssertTestCalled = true;
+        if (!isWithinLimit) {
+            test.hasFailedTest = true;
+            throw new TestFailure(failureMessage);
+        }
+    }
+
+    /**
+     * Runs code once, measuring its wall time and the CPU time and allocations of the current thread
+     *
+     * @param code code to measure
+     * @return the measurement, with -1 for what the JVM cannot measure on the current thread
+     */
+    private static BaselineFile.Measurement measure(Runnable code) {
+        long startCpu       = getThreadCpuNanos();
+        long startAllocated = getThreadAllocatedBytes();
+        long startTime      = System.nanoTime();
+        code.run();
+        long wallNanos      = System.nanoTime() - startTime;
+        long endAllocated   = getThreadAllocatedBytes();
+        long endCpu         = getThreadCpuNanos();
+        return new BaselineFile.Measurement(wallNanos, startCpu < 0 || endCpu < 0 ? -1 : endCpu - startCpu,
+            startAllocated < 0 || endAllocated < 0 ? -1 : endAllocated - startAllocated);
+    }
+
+    /**
+     * Gets the CPU time used by the current thread
+     *
+     * @return CPU time in nanoseconds, or -1 when the JVM cannot measure it
+     */
+    private static long getThreadCpuNanos() {
+        if (!THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() || !THREAD_MX_BEAN.isThreadCpuTimeEnabled()) return -1;
+        return THREAD_MX_BEAN.getCurrentThreadCpuTime();
+    }
+
+    /**
+     * Gets the bytes allocated by the current thread
+     *
+     * @return allocated bytes, or -1 when the JVM cannot measure them
+     */
+    private static long getThreadAllocatedBytes() {
+        if (!(THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean)) return -1;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return -1;
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Formats a measurement for reporting
+     *
+     * @param measurement measurement to format
+     * @return the formatted measurement
+     */
+    private static String formatMeasurement(BaselineFile.Measurement measurement) {
+        StringBuilder text = new StringBuilder(String.format("wall %.3f ms", measurement.wallNanos / 1e6));
+        if (measurement.cpuNanos >= 0) text.append(String.format(", cpu %.3f ms", measurement.cpuNanos / 1e6));
+        if (measurement.allocatedBytes >= 0) {
+            text.append(String.format(", %,d bytes allocated", measurement.allocatedBytes));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Gets how far a measured value is over its baseline
+     *
+     * @param measured measured value, -1 when not measured
+     * @param baseline baseline value, -1 when not measured
+     * @param noise differences up to this amount are not regressions
+     * @return fraction of the baseline the value is over it, 0 when it is not over it
+     */
+    private static double getRegression(long measured, long baseline, long noise) {
+        if (measured < 0 || baseline < 0 || measured - baseline <= noise) return 0;
+        return (double) (measured - baseline) / Math.max(baseline, 1);
+    }
+
+    /**
+     * Compares the "assertNoRegression" measurements of a finished test with their baselines
+     * <p>
+     * Each comparison is reported below the test. A passing test adds its measurements as samples of
+     * baselines which do not have all of their samples yet, every call after the first in a test is stored
+     * with its number appended to the test description.
+     *
+     * @param description description of the test
+     * @param execution state of the test execution
+     */
+    private void checkBaselines(String description, TestExecution execution) {
+        int call = 0;
+        for (BaselineFile.Measurement measurement : execution.measurements) {
+            call++;
+            measurement.segments = this.getPathSegments(call == 1 ? description : description + " #" + call);
+            BaselineFile.Measurement baseline = this.state.baselines.get(measurement.getKey());
+            if (baseline == null) {
+                execution.addDetail(formatMeasurement(measurement) + (execution.hasFailedTest ? " (no baseline yet)" :
+                    " (new baseline)"));
+                continue;
+            }
+
+            // reporting whichever measurement regressed the most
+            double[] regressions = {
+                getRegression(measurement.wallNanos, baseline.wallNanos, REGRESSION_NOISE_NANOS),
+                getRegression(measurement.cpuNanos, baseline.cpuNanos, REGRESSION_NOISE_NANOS),
+                getRegression(measurement.allocatedBytes, baseline.allocatedBytes, REGRESSION_NOISE_BYTES)
+            };
+            String[] baselines = {
+                String.format("wall time %.3f ms", baseline.wallNanos / 1e6),
+                String.format("cpu time %.3f ms", baseline.cpuNanos / 1e6),
+                String.format("%,d bytes allocated", baseline.allocatedBytes)
+            };
+            int worst = 0;
+            for (int i = 1; i < regressions.length; i++) if (regressions[i] > regressions[worst]) worst = i;
+
+            String comparison = String.format("%.0f%% over baseline %s", regressions[worst] * 100, baselines[worst]);
+            if (regressions[worst] > this.state.regressionTolerance) {
+                execution.hasFailedTest = true;
+                execution.addDetail(String.format("%s (%s, tolerance is %.0f%%)", formatMeasurement(measurement),
+                    comparison, this.state.regressionTolerance * 100));
+            } else if (regressions[worst] > this.state.regressionWarning) {
+                execution.addDetail(String.format("%s %s (%s)", SYMBOL_WARNING, formatMeasurement(measurement),
+                    comparison));
+            } else {
+                execution.addDetail(formatMeasurement(measurement) + " (within baseline)");
+            }
+        }
+
+        // measurements of a failed test, including one which regressed, never become part of a baseline
+        if (execution.hasFailedTest) return;
+        for (BaselineFile.Measurement measurement : execution.measurements) this.state.baselines.add(measurement);
+    }
+
+    /**
+     * Creates and attaches a benchmark to the current node
+     * <p>
+     * A benchmark is a test which repeatedly runs its code, first to warm up and then to measure
+     * how long each operation takes. The mean time per operation and operations per second come from
+     * samples which are timed as a whole, since timing a single operation costs more than many operations
+     * take. Each of those samples is followed by a sample whose operations are timed one by one into a
+     * latency histogram, less the least time it takes to read the clock twice, which gives the median,
+     * 99th percentile and most time of a single operation. All of them are reported below the benchmark.
+     * Hooks of the current node run before and after the whole benchmark, the same as for a test.
+     * <p>
+     * The value returned by the code is consumed, so the JIT cannot remove the work that produced it.
+     * A benchmark passes once it completes, unless an "assertTest" call inside of it fails.
+     *
+     * @param benchmarkDescription description of the benchmark
+     * @param benchmarkCode code to measure
+     */
+    public void bench(String benchmarkDescription, Supplier<?> benchmarkCode) {
+        GreenTeaLatte currentNode = this.state.getCurrentNode();
+        if (this.state.isRunningAllTests && this.state.buildingNode.get() == null) {
+            throw new IllegalStateException("Cannot call 'bench' within a test or hook runnable.");
+        }
+        // add benchmark to current level
+        currentNode.addTest(new ExtendedRunnable(benchmarkDescription,
+            () -> this.runBenchmark(benchmarkCode)));
+    }
+
+    /**
+     * Creates and attaches a benchmark to the current node
+     * <p>
+     * Same as the Supplier version, for code which does not produce a value.
+     *
+     * @param benchmarkDescription description of the benchmark
+     * @param benchmarkCode code to measure
+     */
+    public void bench(String benchmarkDescription, Runnable benchmarkCode) {
+        this.bench(benchmarkDescription, () -> {
+            benchmarkCode.run();
+            return null;
+        });
+    }
+
+    /**
+     * Sets the amount of samples taken to warm up and to measure each benchmark
+     * <p>
+     * Each sample repeats the benchmark until it takes at least a millisecond. Every measurement sample is
+     * taken twice, once timed as a whole and once timing each operation.
+     *
+     * @param warmupSamples amount of samples which are discarded
+     * @param measurementSamples amount of samples used for the results, must be at least 1
+     */
+    public void setBenchmarkSamples(int warmupSamples, int measurementSamples) {
+        if (warmupSamples < 0 || measurementSamples < 1) {
+            throw new IllegalArgumentException("Benchmarks need at least 1 measurement sample.");
+        }
+        this.state.benchmarkWarmupSamples      = warmupSamples;
+        this.state.benchmarkMeasurementSamples = measurementSamples;
+    }
+
+    /**
+     * Times a single benchmark sample
+     *
+     * @param benchmarkCode code to measure
+     * @param operations amount of times to run the code
+     * @return duration of the sample in nanoseconds
+     */
+    private static long timeBenchmarkSample(Supplier<?> benchmarkCode, int operations) {
+        Object sink    = benchmarkSink;
+        long startTime = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            if (benchmarkCode.get() == sink) benchmarkSink = new Object();
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * Times each operation of a benchmark sample on its own
+     * <p>
+     * The sample lasts as long as a sample timed as a whole, rather than running as many operations, since
+     * reading the clock around each operation can take far longer than operations which are very fast.
+     *
+     * @param benchmarkCode code to measure
+     * @param timerOverhead nanoseconds to subtract from each operation for reading the clock
+     * @param latencies histogram to record the nanoseconds of each operation into
+     */
+    private static void recordBenchmarkLatencies(Supplier<?> benchmarkCode, long timerOverhead,
+        LatencyHistogram latencies) {
+        Object sink      = benchmarkSink;
+        long sampleStart = System.nanoTime();
+        long endTime     = sampleStart;
+        while (endTime - sampleStart < BENCHMARK_SAMPLE_NANOS) {
+            long startTime = endTime;
+            if (benchmarkCode.get() == sink) benchmarkSink = new Object();
+            endTime = System.nanoTime();
+            latencies.record(endTime - startTime - timerOverhead);
+        }
+    }
+
+    /**
+     * Finds the least time it takes to read the clock twice, which every timed operation includes
+     *
+     * @return overhead in nanoseconds
+     */
+    private static long getTimerOverhead() {
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < TIMER_OVERHEAD_SAMPLES; i++) {
+            long startTime = System.nanoTime();
+            overhead       = Math.min(overhead, System.nanoTime() - startTime);
+        }
+        return overhead;
+    }
+
+    /**
+     * Doubles the amount of operations in a sample until a sample takes long enough to measure
+     *
+     * @param benchmarkCode code to measure
+     * @param operations amount of operations to start from
+     * @return amount of operations in a sample
+     */
+    private static int calibrateBenchmark(Supplier<?> benchmarkCode, int operations) {
+        while (timeBenchmarkSample(benchmarkCode, operations) < BENCHMARK_SAMPLE_NANOS && operations < (1 << 30)) {
+            operations *= 2;
+        }
+        return operations;
+    }
+
+    /**
+     * Warms up and measures a benchmark, then adds the results to the running test
+     *
+     * @param benchmarkCode code to measure
+     */
+    private void runBenchmark(Supplier<?> benchmarkCode) {
+        // find how many operations fit in a sample, then again once warm since compiled code is faster
+        int operations = calibrateBenchmark(benchmarkCode, 1);
+        for (int i = 0; i < this.state.benchmarkWarmupSamples; i++) timeBenchmarkSample(benchmarkCode, operations);
+        operations = calibrateBenchmark(benchmarkCode, operations);
+
+        // whole samples give the mean without the cost of the clock, single operations give the percentiles
+        int samples                = this.state.benchmarkMeasurementSamples;
+        long timerOverhead         = getTimerOverhead();
+        LatencyHistogram latencies = new LatencyHistogram();
+        long totalDuration         = 0;
+        for (int i = 0; i < samples; i++) {
+            totalDuration += timeBenchmarkSample(benchmarkCode, operations);
+            recordBenchmarkLatencies(benchmarkCode, timerOverhead, latencies);
+        }
+
+        double mean         = (double) totalDuration / samples / operations;
+        double opsPerSecond = (double) operations * samples / totalDuration * 1e9;
+
+        // completing a benchmark counts as passing it
+        TestExecution test = this.state.currentTest.get();
+        test.wasAssertTestCalled = true;
+        test.addDetail(String.format("mean %.1f ns/op, %,.0f ops/sec, p50 %,d ns, p99 %,d ns, max %,d ns "
+            + "(%d samples of %d ops, timer overhead of %d ns subtracted)", mean, opsPerSecond,
+            latencies.getPercentile(50), latencies.getPercentile(99), latencies.getMax(), samples, operations,
+            timerOverhead));
+    }
+
+    /**
+     * Creates and attaches a concurrency stress test to the current node
+     * <p>
+     * The code is run by a growing amount of threads, doubling from 1 up to the given amount. In each round
+     * every thread runs the code for the amount of iterations, with all threads released together from a
+     * start barrier. "assertTest" can be called from every thread, the first failure stops the round and
+     * fails the test. Throughput, latency percentiles and how often the threads blocked on a monitor are
+     * reported below the test for each round. Hooks of the current node run before and after the whole test.
+     * <p>
+     * Latencies include the cost of reading the clock, so they are only meaningful for code which takes
+     * longer than a few dozen nanoseconds. Like any other test, a stress test which never calls "assertTest"
+     * is pending, its rounds are still reported.
+     * <p>
+     * {@code deliciousLatte.itConcurrently("should count every increment", 8, 100000, () -> {
+     *     deliciousLatte.assertTest(counter.incrementAndGet() > 0);
+     * });}
+     *
+     * @param testDescription description of the test
+     * @param threads largest amount of threads, must be at least 1
+     * @param iterations amount of times each thread runs the code in each round, must be at least 1
+     * @param testCode code to run concurrently
+     */
+    public void itConcurrently(String testDescription, int threads, int iterations, Runnable testCode) {
+        GreenTeaLatte currentNode = this.state.getCurrentNode();
+        if (this.state.isRunningAllTests && this.state.buildingNode.get() == null) {
+            throw new IllegalStateException("Cannot call 'itConcurrently' within a test or hook runnable.");
+        }
+        if (threads < 1 || iterations < 1) {
+            throw new IllegalArgumentException("Concurrent tests need at least 1 thread and 1 iteration.");
+        }
+        // add test to current level
+        currentNode.addTest(new ExtendedRunnable(testDescription,
+            () -> this.runConcurrently(threads, iterations, testCode)));
+    }
+
+    /**
+     * Runs each round of a concurrency stress test, then adds the results to the running test
+     *
+     * @param threads largest amount of threads
+     * @param iterations amount of times each thread runs the code in each round
+     * @param testCode code to run concurrently
+     * @throws Throwable the first error thrown by any thread
+     */
+    private void runConcurrently(int threads, int iterations, Runnable testCode) {
+        TestExecution test = this.state.currentTest.get();
+        for (int threadCount = 1; ; threadCount = Math.min(threadCount * 2, threads)) {
+            test.addDetail(this.runConcurrentRound(test, threadCount, iterations, testCode));
+            if (threadCount == threads) break;
+        }
+    }
+
+    /**
+     * Runs a single round of a concurrency stress test
+     * <p>
+     * Every worker thread shares the execution of the test, so "assertTest" calls from any of them
+     * count towards the test.
+     *
+     * @param test execution of the running test
+     * @param threadCount amount of threads in the round
+     * @param iterations amount of times each thread runs the code
+     * @param testCode code to run concurrently
+     * @return results of the round
+     * @throws Throwable the first error thrown by any thread
+     */
+    private String runConcurrentRound(TestExecution test, int threadCount, int iterations, Runnable testCode) {
+        CountDownLatch ready                      = new CountDownLatch(threadCount);
+        CountDownLatch start                      = new CountDownLatch(1);
+        AtomicReference<Throwable> firstThrowable = new AtomicReference<Throwable>();
+        LatencyHistogram[] latencies              = new LatencyHistogram[threadCount];
+        long[] blockedCounts                      = new long[threadCount];
+        Thread[] workers                          = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            int worker        = i;
+            latencies[worker] = new LatencyHistogram();
+            workers[worker]   = new Thread(() -> {
+                this.state.currentTest.set(test);
+                ready.countDown();
+                try {
+                    start.await();
+                    LatencyHistogram histogram = latencies[worker];
+                    long blockedCount          = getThreadBlockedCount();
+                    for (int iteration = 0; iteration < iterations && firstThrowable.get() == null; iteration++) {
+                        long startTime = System.nanoTime();
+                        testCode.run();
+                        histogram.record(System.nanoTime() - startTime);
+                    }
+                    blockedCounts[worker] = getThreadBlockedCount() - blockedCount;
+                } catch (Throwable throwable) {
+                    firstThrowable.compareAndSet(null, throwable);
+                }
+            }, "greentealatte-concurrent-" + worker);
+            workers[worker].setDaemon(true);
+            workers[worker].start();
+        }
+
+        // releasing every thread at once, after all of them are waiting
+        long startTime = System.nanoTime();
+        try {
+            ready.await();
+            startTime = System.nanoTime();
+            start.countDown();
+            for (Thread worker : workers) worker.join();
+        } catch (InterruptedException exception) {
+            // such as when the test times out, the workers stop at their next iteration
+            firstThrowable.compareAndSet(null, exception);
+            start.countDown();
+            Thread.currentThread().interrupt();
+        }
+        long duration = System.nanoTime() - startTime;
+        if (firstThrowable.get() != null) rethrow(firstThrowable.get());
+
+        LatencyHistogram latency = new LatencyHistogram();
+        long blockedCount        = 0;
+        for (int i = 0; i < threadCount; i++) {
+            latency.add(latencies[i]);
+            blockedCount += blockedCounts[i];
+        }
+        return String.format("%d thread%s: %,.0f ops/sec, p50 %,d ns, p99 %,d ns, p99.9 %,d ns, max %,d ns, "
+            + "blocked %,d times", threadCount, threadCount == 1 ? "" : "s", latency.getCount() * 1e9 / duration,
+            latency.getPercentile(50), latency.getPercentile(99), latency.getPercentile(99.9), latency.getMax(),
+            blockedCount);
+    }
+
+    /**
+     * Gets how often the current thread has blocked to enter a monitor
+     *
+     * @return amount of times blocked
+     */
+    private static long getThreadBlockedCount() {
+        ThreadInfo info = THREAD_MX_BEAN.getThreadInfo(Thread.currentThread().getId());
+        return info != null ? info.getBlockedCount() : 0;
+    }
+
+    /**
+     * Creates and attaches a property to the current node, which must hold for randomly generated inputs
+     * <p>
+     * The property is checked for each sample, generated from the seed, with the samples spread over all
+     * cores. When it does not hold, or throws, for a sample, the input is shrunk to the simplest version
+     * which still fails. The property is then reported as a failed test, with the counterexample and
+     * the seed which reproduces it reported below it.
+     * <p>
+     * The property may run on any thread, so it reports its result by returning it rather than
+     * by calling "assertTest".
+     * <p>
+     * {@code deliciousLatte.forAll("should never be negative when squared",
+     *     GreenTeaLatteGenerator.integers(-1000, 1000), number -> number * number >= 0);}
+     *
+     * @param propertyDescription description of the property
+     * @param generator generator of the inputs
+     * @param property returns true when the property holds for an input
+     */
+    public <T> void forAll(String propertyDescription, GreenTeaLatteGenerator<T> generator,
+        Predicate<? super T> property) {
+        GreenTeaLatte currentNode = this.state.getCurrentNode();
+        if (this.state.isRunningAllTests && this.state.buildingNode.get() == null) {
+            throw new IllegalStateException("Cannot call 'forAll' within a test or hook runnable.");
+        }
+        // add test to current level
+        currentNode.addTest(new ExtendedRunnable(propertyDescription,
+            () -> currentNode.checkProperty(propertyDescription, generator, property)));
+    }
+
+    /**
+     * Sets the amount of random inputs each property is checked for
+     *
+     * @param samples amount of inputs, must be at least 1
+     */
+    public void setPropertySamples(int samples) {
+        if (samples < 1) {
+            throw new IllegalArgumentException("Properties need at least 1 sample.");
+        }
+        this.state.propertySamples = samples;
+    }
+
+    /**
+     * Sets the seed which the inputs of every property are generated from
+     * <p>
+     * When not set, the "greentealatte.seed" system property is used, otherwise a new seed is chosen
+     * every run. The seed is reported below every property which fails.
+     *
+     * @param seed seed of the random inputs
+     */
+    public void setSeed(long seed) {
+        this.state.seed = seed;
+    }
+
+    /**
+     * Checks if a property holds for a single input
+     *
+     * @param property property to check
+     * @param value input to check
+     * @return null if the property holds, or the throwable explaining why it does not
+     */
+    private static <T> Throwable checkSample(Predicate<? super T> property, T value) {
+        try {
+            if (property.test(value)) return null;
+            AssertionError error = new AssertionError("Property does not hold for " + value);
+            error.setStackTrace(new StackTraceElement[0]);
+            return error;
+        } catch (Throwable throwable) {
+            return throwable;
+        }
+    }
+
+    /**
+     * Finds the first input for which a property does not hold, checking the inputs in parallel on PROPERTY_POOL
+     *
+     * @param property property to check
+     * @param inputs creates the input at an index
+     * @param amount amount of inputs to check
+     * @return index of the first failing input, or -1 if the property holds for all of them
+     */
+    private static <T> int findFailingSample(Predicate<? super T> property, IntFunction<T> inputs, int amount) {
+        // a parallel stream runs on the pool of the thread which starts it, or else the common pool
+        return PROPERTY_POOL.submit(() -> IntStream.range(0, amount).parallel()
+            .filter(index -> checkSample(property, inputs.apply(index)) != null)
+            .findFirst()
+            .orElse(-1)).join();
+    }
+
+    /**
+     * Checks a property for all samples, shrinking and reporting the first counterexample, runs as the test
+     *
+     * @param description description of the property
+     * @param generator generator of the inputs
+     * @param property property to check
+     * @throws Throwable the reason the property does not hold for the shrunk counterexample
+     */
+    private <T> void checkProperty(String description, GreenTeaLatteGenerator<T> generator,
+        Predicate<? super T> property) {
+        TestExecution test = this.state.currentTest.get();
+        test.wasAssertTestCalled = true;
+
+        // every property gets its own seed, so adding a property does not change the inputs of others
+        long seed                   = this.state.runSeed + SEED_GAMMA * this.getPath(description).hashCode();
+        IntFunction<T> sampleInputs = index -> generator.generate(new SplittableRandom(seed + SEED_GAMMA * index));
+        int failingSample           = findFailingSample(property, sampleInputs, this.state.propertySamples);
+        if (failingSample < 0) return;
+
+        // shrinking to the first simpler input which still fails, until none does
+        T original       = sampleInputs.apply(failingSample);
+        T counterexample = original;
+        int shrinks      = 0;
+        while (shrinks < MAX_PROPERTY_SHRINKS) {
+            List<T> candidates = generator.shrink(counterexample);
+            int simpler        = findFailingSample(property, candidates::get, candidates.size());
+            if (simpler < 0) break;
+            counterexample = candidates.get(simpler);
+            shrinks++;
+        }
+
+        test.addDetail(String.format("counterexample %s (sample %d of %d, shrunk %d times from %s)", counterexample,
+            failingSample + 1, this.state.propertySamples, shrinks, original));
+        test.addDetail(String.format("reproduce with -Dgreentealatte.seed=%d", this.state.runSeed));
+        test.hasFailedTest = true;
+
+        // checked once more on this thread, so a thrown error has the stack trace of the test
+        Throwable throwable = checkSample(property, counterexample);
+        if (throwable == null) throwable = new AssertionError("Property does not hold for " + counterexample);
+        rethrow(throwable);
+    }
+
+    /**
+     * Define a block of code to run before the current node executes any tests
+     * <p>
+     * This only runs once for the "describe" node that it is defined in.
+     * Multiple before code blocks can be defined. When there are multiple
+     * blocks defined, they will execute in the order that they are defined.
+     *
+     * @param description description for the setup
+     * @param setup code for the setup
+     */
+    public void before(String description, Runnable setup) {
+        GreenTeaLatte currentNode = this.state.getCurrentNode();
+        if (this.state.isRunningAllTests && this.state.buildingNode.get() == null) {
+            throw new IllegalStateException("Cannot call 'before' within a test or hook runnable.");
+        }
+        // add hook to current level
+        currentNode.beforeHooks = addHook(currentNode.beforeHooks, new ExtendedRunnable(description, setup));
+    }
+
+    /**
+     * Define a block of code to run after the current node executes any tests
+     * <p>
+     * This only runs once for the "describe" node that it is defined in.
+     * Multiple after code blocks can be defined. When there are multiple
+     * blocks defined, they will execute in the order that they are defined.
+     *
+     * @param description description for the cleanup
+     * @param cleanup code for the cleanup
+     */
+    public void after(String description, Runnable cleanup) {
+        GreenTeaLatte currentNode = this.state.getCurrentNode();
+        if (this.state.isRunningAllTests && this.state.buildingNode.get() == null) {
+            throw new IllegalStateException("Cannot call 'after' within a test or hook runnable.");
+        }
+        // add hook to current level
+        currentNode.afterHooks = addHook(currentNode.afterHooks, new ExtendedRunnable(description, cleanup));
+    }
+
+    /**
+     * Define a block of code to run before each test
+     * <p>
+     * This only runs once for each "it" test in the current node.
+     * Multiple before code blocks can be defined. When there are multiple
+     * blocks defined, they will execute in the order that they are defined.
+     *
+     * @param description description for the setup
+     * @param setup code for the setup
+     */
+    public void beforeEach(String description, Runnable setup) {
+        GreenTeaLatte currentNode = this.state.getCurrentNode();
+        if (this.state.isRunningAllTests && this.state.buildingNode.get() == null) {
+            throw new IllegalStateException("Cannot call 'beforeEach' within a test or hook runnable.");
+        }
+        // add hook to current level
+        currentNode.beforeEachHooks = addHook(currentNode.beforeEachHooks, new ExtendedRunnable(description, setup));
+    }
+
+    /**
+     * Define a block of code to run after each test
+     * <p>
+     * This only runs once for each "it" test in the current node.
+     * Multiple before code blocks can be defined. When there are multiple
+     * blocks defined, they will execute in the order that they are defined.
+     *
+     * @param description description for the cleanup
+     * @param cleanup code for the cleanup
+     */
+    public void afterEach(String description, Runnable cleanup) {
+        GreenTeaLatte currentNode = this.state.getCurrentNode();
+        if (this.state.isRunningAllTests && this.state.buildingNode.get() == null) {
+            throw new IllegalStateException("Cannot call 'afterEach' within a test or hook runnable.");
+        }
+        // add hook to current level
+        currentNode.afterEachHooks = addHook(currentNode.afterEachHooks, new ExtendedRunnable(description, cleanup));
+    }
+
+    /**
+     * Registers a fixture which tests and hooks anywhere in the tree can use through getFixture
+     * <p>
+     * The fixture is only created the first time it is used, then shared for its scope:
+     * a suite fixture is shared by the whole tree and torn down once every "describe" which declared
+     * it with "uses" has finished, or at the end of the run when none did. A describe fixture is shared
+     * within the closest "describe" which declared it with "uses", or within the "describe" of the test
+     * when none did, and torn down when that "describe" finishes. A test fixture is created for each test
+     * and torn down after its afterEach hooks. Teardowns are reported like hooks.
+     * <p>
+     * Fixtures belong to the whole tree, so they are registered while defining the tree, and not within the
+     * body of a lazy "describe", which runs again on every run.
+     *
+     * @param name name of the fixture
+     * @param scope how long a single instance is shared
+     * @param setup creates an instance
+     * @param teardown cleans up an instance
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void fixture(String name, FixtureScope scope, Supplier<T> setup, Consumer<? super T> teardown) {
+        if (this.state.isRunningAllTests && this.state.buildingNode.get() == null) {
+            throw new IllegalStateException("Cannot call 'fixture' within a test or hook runnable.");
+        }
+        if (this.state.isRunningAllTests) {
+            throw new IllegalStateException("Cannot call 'fixture' within a lazy 'describe', register it before "
+                + "running the tree.");
+        }
+        if (this.state.fixtures.containsKey(name)) {
+            throw new IllegalArgumentException("A fixture named '" + name + "' is already registered.");
+        }
+        this.state.fixtures.put(name, new Fixture(name, scope, setup, (Consumer<Object>) teardown));
+    }
+
+    /**
+     * Registers a fixture which needs no teardown
+     *
+     * @param name name of the fixture
+     * @param scope how long a single instance is shared
+     * @param setup creates an instance
+     */
+    public <T> void fixture(String name, FixtureScope scope, Supplier<T> setup) {
+        this.fixture(name, scope, setup, null);
+    }
+
+    /**
+     * Declares that the current node uses a fixture
+     * <p>
+     * A suite fixture is kept until every "describe" which declared it has finished, so it is shared by all of
+     * them. A describe fixture is shared by all tests within the current node and its descendants.
+     *
+     * @param name name of the fixture
+     */
+    public void uses(String name) {
+        GreenTeaLatte currentNode = this.state.getCurrentNode();
+        if (this.state.isRunningAllTests && this.state.buildingNode.get() == null) {
+            throw new IllegalStateException("Cannot call 'uses' within a test or hook runnable.");
+        }
+        if (currentNode.fixtureNames == null) {
+            currentNode.fixtureNames = new String[] { name };
+        } else {
+            currentNode.fixtureNames = Arrays.copyOf(currentNode.fixtureNames, currentNode.fixtureNames.length + 1);
+            currentNode.fixtureNames[currentNode.fixtureNames.length - 1] = name;
+        }
+    }
+
+    /**
+     * Gets the instance of a fixture for the running test or hook, creating it on first use
+     *
+     * @param name name of the fixture
+     * @return the instance
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getFixture(String name) {
+        Fixture fixture = this.getFixtureDefinition(name);
+        TestExecution test = this.state.currentTest.get();
+        GreenTeaLatte node = test != null ? test.node : this.state.runningNode.get();
+        if (node == null) {
+            throw new IllegalStateException("All 'getFixture' calls must be made within a test or hook runnable.");
+        }
+
+        FixtureInstance instance;
+        if (fixture.scope == FixtureScope.TEST) {
+            if (test == null) {
+                throw new IllegalStateException("Test fixture '" + name + "' can only be used within a test.");
+            }
+            instance = test.getFixture(fixture);
+        } else if (fixture.scope == FixtureScope.SUITE) {
+            synchronized (fixture) {
+                if (fixture.suiteInstance == null) fixture.suiteInstance = new FixtureInstance(fixture);
+                instance = fixture.suiteInstance;
+            }
+        } else {
+            instance = node.getFixtureOwner(name).getDescribeFixture(fixture);
+        }
+        return (T) instance.get();
+    }
+
+    /**
+     * Finds a registered fixture
+     *
+     * @param name name of the fixture
+     * @return definition of the fixture
+     */
+    private Fixture getFixtureDefinition(String name) {
+        Fixture fixture = this.state.fixtures.get(name);
+        if (fixture == null) {
+            throw new IllegalArgumentException("No fixture named '" + name + "' is registered.");
+        }
+        return fixture;
+    }
+
+    /**
+     * Finds the node which shares a describe fixture with its descendants
+     *
+     * @param name name of the fixture
+     * @return the closest node which declared the fixture, or the current node when none did
+     */
+    private GreenTeaLatte getFixtureOwner(String name) {
+        for (GreenTeaLatte node = this; node != null; node = node.parent) {
+            if (node.fixtureNames != null && Arrays.asList(node.fixtureNames).contains(name)) return node;
+        }
+        return this;
+    }
+
+    /**
+     * Gets the instance of a describe fixture owned by the current node
+     *
+     * @param fixture definition of the fixture
+     * @return the instance
+     */
+    private synchronized FixtureInstance getDescribeFixture(Fixture fixture) {
+        if (this.fixtureInstances == null) this.fixtureInstances = new LinkedList<FixtureInstance>();
+        for (FixtureInstance instance : this.fixtureInstances) {
+            if (instance.fixture == fixture) return instance;
+        }
+        FixtureInstance instance = new FixtureInstance(fixture);
+        this.fixtureInstances.add(instance);
+        return instance;
+    }
+
+    /**
+     * Counts the current node as a user of the suite fixtures it declared, see fixture
+     */
+    private void countFixtureUsers() {
+        if (this.fixtureNames == null) return;
+        for (String name : this.fixtureNames) {
+            Fixture fixture = this.getFixtureDefinition(name);
+            if (fixture.scope != FixtureScope.SUITE) continue;
+            synchronized (fixture) {
+                fixture.users++;
+            }
+        }
+    }
+
+    /**
+     * Counts every selected node in the current node and its descendants as a user of its suite fixtures
+     * <p>
+     * Only runs once the selection is final, once for the whole tree each run and once for each lazy node
+     * when it is built, whose descendants are not built before then. Which fixtures a lazy node uses is
+     * unknown until it is built, so until then it counts as a user of every suite fixture. A suite fixture
+     * is therefore kept across lazy siblings, and is only torn down at the end of the run when no declared
+     * user finishes after the last lazy node was built.
+     */
+    private void countSubtreeFixtureUsers() {
+        if (!this.isSelected) return;
+        if (!this.isBuilt) {
+            this.isHoldingSuiteFixtures = true;
+            this.holdSuiteFixtures(1);
+            return;
+        }
+        this.countFixtureUsers();
+        for (int i = 0; i < this.childCount; i++) this.children[i].countSubtreeFixtureUsers();
+    }
+
+    /**
+     * Adds to the users of every suite fixture, for a lazy node which is not built yet
+     *
+     * @param users amount of users to add, -1 once the node is built
+     */
+    private void holdSuiteFixtures(int users) {
+        for (Fixture fixture : this.state.fixtures.values()) {
+            if (fixture.scope != FixtureScope.SUITE) continue;
+            synchronized (fixture) {
+                fixture.users += users;
+            }
+        }
+    }
+
+    /**
+     * Tears down the fixture instances which are no longer used once the current node has finished
+     * <p>
+     * These are the describe fixtures owned by the node, the suite fixtures which the node was the last user
+     * of, and when the node is the root, every suite fixture which is left.
+     *
+     * @param reporter reporter to receive output
+     * @param isAborted true when the node stopped because of an error, teardown errors are then ignored
+     * @throws Throwable the first error that occured in a teardown
+     */
+    private void tearDownFixtures(GreenTeaLatteReporter reporter, boolean isAborted) {
+        LinkedList<FixtureInstance> unused = new LinkedList<FixtureInstance>();
+        synchronized (this) {
+            // describe fixtures are left to a test or hook which timed out and is still running
+            if (this.fixtureInstances != null && !this.isAborted) unused.addAll(this.fixtureInstances);
+            this.fixtureInstances = null;
+        }
+        if (this.fixtureNames != null) {
+            for (String name : this.fixtureNames) {
+                Fixture fixture = this.state.fixtures.get(name);
+                if (fixture == null || fixture.scope != FixtureScope.SUITE) continue;
+                synchronized (fixture) {
+                    if (--fixture.users > 0 || fixture.suiteInstance == null) continue;
+                    unused.add(fixture.suiteInstance);
+                    fixture.suiteInstance = null;
+                }
+            }
+        }
+        if (this.isRoot()) {
+            for (Fixture fixture : this.state.fixtures.values()) {
+                synchronized (fixture) {
+                    if (fixture.suiteInstance != null) unused.add(fixture.suiteInstance);
+                    fixture.suiteInstance = null;
+                    fixture.users         = 0;
+                }
+            }
+        }
+        this.tearDownFixtureInstances(reporter, unused, isAborted);
+    }
+
+    /**
+     * Tears down fixture instances which have been created, reporting each teardown like a hook
+     *
+     * @param reporter reporter to receive output
+     * @param instances instances to tear down
+     * @param isAborted true when the tree stopped because of an error, teardown errors are then ignored
+     * @throws Throwable the first error that occured in a teardown
+     */
+    private void tearDownFixtureInstances(GreenTeaLatteReporter reporter, LinkedList<FixtureInstance> instances,
+        boolean isAborted) {
+        Throwable firstThrowable = null;
+        for (FixtureInstance instance : instances) {
+            if (!instance.isCreated || instance.fixture.teardown == null) continue;
+            String description = "teardown " + instance.fixture.name;
+            reporter.hookStarted(this.depth, description);
+
+            FlightRecorderEvents.HookEvent event = FlightRecorderEvents.beginHook();
+            long startTime                       = System.nanoTime();
+            Throwable throwable                  = this.executeHook(
+                () -> instance.fixture.teardown.accept(instance.value), 0);
+            long duration                        = System.nanoTime() - startTime;
+            this.recordTiming(instance.fixture.name, "teardown", duration);
+            this.commitHookEvent(event, description, "teardown", throwable);
+            reporter.hookFinished(this.depth, description, duration);
+            if (firstThrowable == null) firstThrowable = throwable;
+        }
+        if (firstThrowable != null && !isAborted) {
+            // throwing the error, otherwise it won't show up in test results
+            Error error = new Error(firstThrowable);
+            filterStackTrace(error);
+            throw error;
+        }
+    }
+
+    /**
+     * Ends the flight recorder event of a hook which has finished, when a recording wants it
+     *
+     * @param event event begun when the hook started, or null without a recording
+     * @param description description of the hook
+     * @param hookType type of the hook
+     * @param throwable the throwable thrown by the hook, or null
+     */
+    private void commitHookEvent(FlightRecorderEvents.HookEvent event, String description, String hookType,
+        Throwable throwable) {
+        if (event == null || !event.shouldCommit()) return;
+        event.path     = this.getPath(description);
+        event.hookType = hookType;
+        event.outcome  = FlightRecorderEvents.getOutcome(throwable != null);
+        event.commit();
+    }
+
+    /**
+     * Loops through all hooks in an array and executes them
+     *
+     * @param reporter reporter to receive output
+     * @param hooks list of hooks
+     * @param hookType type of the hooks, used when reporting durations
+     * @throws Throwable any error that occured in a hook
+     */
+    private void runHooks(GreenTeaLatteReporter reporter, ExtendedRunnable[] hooks, String hookType) {
+        for (ExtendedRunnable hook : hooks) {
+            // nothing else runs while a test or hook which timed out is still running
+            if (this.isAborted) {
+                this.skipHook(reporter, hook.description);
+                continue;
+            }
+            reporter.hookStarted(this.depth, hook.description);
+
+            FlightRecorderEvents.HookEvent event = FlightRecorderEvents.beginHook();
+            long timeoutMillis                   = this.getTimeoutMillis(hook);
+            long startTime                       = System.nanoTime();
+            Throwable throwable                  = this.executeHook(hook.runnable, timeoutMillis);
+            long duration                        = System.nanoTime() - startTime;
+            this.recordTiming(hook.description, hookType, duration);
+            this.commitHookEvent(event, hook.description, hookType, throwable);
+            reporter.hookFinished(this.depth, hook.description, duration);
+            if (throwable != null) {
+                reporter.hookFailed(this.depth, hook.description, throwable);
+
+                // throwing the error, otherwise it won't show up in test results
+                Error error = new Error(throwable);
+                filterStackTrace(error);
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Runs all tests that have been defined
+     * <p>
+     * Runs deepest level tests first. A tree can be run more than once, each run starts from
+     * fresh statistics.
+     *
+     * @throws Throwable any error that occured to stop tests from running or
+     * throws a RuntimeException after all tests have been run if one of them failed
+     */
+    public void run() {
+        this.runAllTests();
+
+        // throwing runtime exception if at least one test failed on the full tree
+        if (this.isRoot() && this.hasBailed()) {
+            throw new Error(String.format("Did not pass all tests, stopped after %d failed", this.failedTests));
+        }
+        if (this.isRoot() && this.failedTests > 0) {
+            throw new Error("Did not pass all tests");
+        }
     }
 
     /**
-     * Increments the pending test counter for current node and all parents
+     * Runs the tree again with its own selection and output, used by DaemonRunner
+     * <p>
+     * The grep and reporter of the tree are restored afterwards. Additional reporters
+     * receive the output of every run.
+     *
+     * @param grep regular expression which test paths must contain, null keeps the selection of the tree
+     * @param out stream to print the output to
+     * @param charset charset to encode the output with
+     * @return true if no selected test failed
+     * @throws Throwable any error that occured to stop tests from running
      */
-    private void incrementPendingTests() {
-        this.pendingTests++;
-        if (!this.isRoot()) this.parent.incrementPendingTests();
+    boolean rerun(String grep, PrintStream out, Charset charset) {
+        String treeGrep                    = this.state.grep;
+        GreenTeaLatteReporter treeReporter = this.state.reporter;
+        if (grep != null) this.state.grep = grep;
+        this.state.reporter = new ConsoleReporter(out, charset, this.state.singleIndentation);
+        try {
+            this.runAllTests();
+        } finally {
+            this.state.grep     = treeGrep;
+            this.state.reporter = treeReporter;
+        }
+        return this.failedTests == 0;
     }
 
     /**
-     * Increments the failed test counter for current node and all parents
+     * Clears everything a previous run left in the current node and all descendants
+     * <p>
+     * Lazy nodes which are still built, such as after a hook threw, are released so their bodies run again.
      */
-    private void incrementFailedTests() {
-        this.failedTests++;
-        if (!this.isRoot()) this.parent.incrementFailedTests();
+    private void resetRun() {
+        this.successfulTests = 0;
+        this.pendingTests    = 0;
+        this.failedTests     = 0;
+        this.durationNanos   = 0;
+        this.slowest         = null;
+        if (this.isRoot()) {
+            // suite fixtures are counted again by select, users left by a run which stopped early are dropped
+            for (Fixture fixture : this.state.fixtures.values()) {
+                synchronized (fixture) {
+                    fixture.users = 0;
+                }
+            }
+        }
+        if (this.body != null && this.isBuilt) {
+            this.release();
+            return;
+        }
+        for (int i = 0; i < this.childCount; i++) this.children[i].resetRun();
     }
 
     /**
-     * Creates a string that represents the full indentation
+     * Selects and runs the tests of the tree, reporting them to every reporter
      *
-     * @param additionalIndents allows for adding additional indentation
-     * @return full indentation
+     * @throws Throwable any error that occured to stop tests from running
      */
-    private String getFullIdentation(int additionalIndents) {
-        int indentAmount       = this.depth + additionalIndents;
-        String fullIndentation = "";
+    private void runAllTests() {
+        // nothing from a previous run of the tree is kept
+        this.resetRun();
+        this.state.grepPattern           = null;
+        this.state.previousNodeDurations = null;
+        this.state.previouslyFailedNodes = null;
 
-        for (int i = 0; i < indentAmount; i++) fullIndentation += this.state.singleIndentation;
-        return fullIndentation;
-    };
+        if (this.state.reporter == null) {
+            this.state.reporter = new ConsoleReporter(System.out, this.state.singleIndentation);
+        }
+        List<GreenTeaLatteReporter> reporters = new ArrayList<GreenTeaLatteReporter>();
+        reporters.add(this.state.reporter);
+        reporters.addAll(this.state.additionalReporters);
+        GreenTeaLatteReporter reporter = combineReporters(reporters);
 
-    /**
-     * removes uncessary information from the stack trace for easier debugging
-     *
-     * @param  Throwable throwable to filter
-     */
-    private void filterStackTrace(Throwable throwable) {
-        LinkedList<StackTraceElement> filteredStackTrace = new LinkedList<StackTraceElement>();
-        for (StackTraceElement element : throwable.getStackTrace()) {
-            boolean isFromClass      = element.getClassName().equals(this.getClass().getCanonicalName());
-            String methodName        = element.getMethodName();
-            boolean isSkipableMethod = methodName.equals("run") || methodName.equals("runHooks") ||
-                methodName.equals("executeWithFilteredStackTrace") || methodName.equals("assertTest");
-            if (!(isFromClass && isSkipableMethod)) {
-                // the stack element was not generated from this class
-                filteredStackTrace.add(element);
+        if (this.state.rerunMode == null) {
+            String rerunMode = System.getProperty("greentealatte.rerun");
+            try {
+                this.state.rerunMode = rerunMode != null ? RerunMode.valueOf(rerunMode.trim()) : RerunMode.ALL;
+            } catch (IllegalArgumentException exception) {
+                throw new IllegalArgumentException(String.format("Invalid greentealatte.rerun '%s', expected one of %s",
+                    rerunMode, Arrays.toString(RerunMode.values())), exception);
             }
         }
-        throwable.setStackTrace(filteredStackTrace.toArray(new StackTraceElement[0]));
-    }
+        if (this.state.resultFile == null) this.state.resultFile = System.getProperty("greentealatte.results");
+        if (this.state.rerunMode != RerunMode.ALL && this.state.resultFile == null) {
+            throw new IllegalStateException("A result file must be set to use rerun mode " + this.state.rerunMode);
+        }
+        String shardProperty = System.getProperty("greentealatte.shard");
+        if (this.state.shardCount == 0 && shardProperty != null) {
+            String[] shard = shardProperty.split("/", -1);
+            try {
+                if (shard.length != 2) throw new IllegalArgumentException("Expected an index and a count.");
+                this.setShard(Integer.parseInt(shard[0].trim()), Integer.parseInt(shard[1].trim()));
+            } catch (IllegalArgumentException exception) {
+                throw new IllegalArgumentException(String.format(
+                    "Invalid greentealatte.shard '%s', expected the index and count of the shard such as 0/4",
+                    shardProperty), exception);
+            }
+        }
+        if (this.state.shardCount > 0 && this.state.resultFile == null) this.state.resultFile = DEFAULT_RESULT_FILE;
 
-    /**
-     * Executes the runnable but filters the stack trace for easier debugging
-     *
-     * @param runnable the runnable which need to execute
-     * @return null if no errors occured, or the altered throwable if an error did occur
-     */
-    private Throwable executeWithFilteredStackTrace(Runnable runnable) {
+        // selecting tests by pattern and by previous results
+        Map<String, ResultFile.Record> previousResults = null;
+        Predicate<String[]> selection = null;
+        String grep = this.state.grep != null ? this.state.grep : System.getProperty("greentealatte.grep");
+        if (grep != null) {
+            Pattern pattern = Pattern.compile(grep);
+            selection = segments -> pattern.matcher(String.join(" > ", segments)).find();
+            this.state.grepPattern = pattern;
+        }
+        if (this.state.resultFile != null) {
+            Path resultFile = Paths.get(this.state.resultFile);
+            previousResults = ResultFile.read(resultFile);
+            if (this.state.shardCount > 0) {
+                // shards only write the results of their own tests, which are merged afterwards
+                Path shardFile = ResultFile.getShardFile(resultFile, this.state.shardIndex);
+                this.state.results = new ResultFile(shardFile, Collections.<String, ResultFile.Record>emptyMap());
+
+                // every shard defines the same tree, the first one tells the merge the order of the subtrees
+                if (this.state.shardIndex == 0) {
+                    List<String> order = new ArrayList<String>();
+                    for (int i = 0; i < this.childCount; i++) order.add(this.children[i].description);
+                    ResultFile.writeDescriptions(ResultFile.getOrderFile(resultFile), order);
+                }
+            } else {
+                // results of tests which were removed from the tree are dropped
+                this.state.results = new ResultFile(resultFile, previousResults);
+                this.state.results.keepOnlyExisting();
+            }
+            if (this.state.rerunMode == RerunMode.FAILED_AND_NEW) {
+                Map<String, ResultFile.Record> previous = previousResults;
+                Predicate<String[]> failedOrNew = segments -> {
+                    ResultFile.Record record = previous.get(ResultFile.getKey(segments));
+                    return record == null || record.outcome == GreenTeaLatteReporter.Outcome.FAILED;
+                };
+                selection = selection == null ? failedOrNew : selection.and(failedOrNew);
+            }
+        }
+        this.state.runBail = this.state.bail != null ? this.state.bail : Integer.getInteger("greentealatte.bail", 0);
+        String timeout     = System.getProperty("greentealatte.timeout");
+        this.state.defaultTimeoutMillis = timeout != null ? Long.parseLong(timeout) : 0;
+
+        this.state.runSeed = this.state.seed != null ? this.state.seed :
+            Long.getLong("greentealatte.seed", System.nanoTime());
+        if (this.state.baselineFile == null) this.state.baselineFile = System.getProperty("greentealatte.baseline");
+        if (this.state.baselineFile != null) {
+            boolean isRefreshing = this.state.isRefreshingBaselines ||
+                Boolean.getBoolean("greentealatte.refreshBaselines");
+            this.state.baselines = new BaselineFile(Paths.get(this.state.baselineFile), isRefreshing);
+        }
+
+        this.state.selection             = selection;
+        this.state.previousResults       = previousResults;
+        this.state.fallbackDurationNanos = getFallbackDurationNanos(previousResults);
+        this.state.failedTestCount.set(0);
+        if (this.state.isLazy && previousResults != null) this.indexPreviousNodes(previousResults);
+        this.select(selection, previousResults);
+        if (this.state.shardCount > 0) this.selectShard(previousResults);
+        this.countSubtreeFixtureUsers();
+
+        this.state.isRunningAllTests = true;
         try {
-            runnable.run();
-            return null; // successful
-        } catch (Throwable throwable) {
-            if (this.state.isRunningTest) {
-                // ensuring that an error will result in a failed test rather than a pending test
-                this.state.hasFailedTest = true;
+            if (this.state.parallelism > 1) {
+                ForkJoinPool pool = new ForkJoinPool(this.state.parallelism);
+                try {
+                    SubtreeTask task = new SubtreeTask(this, reporter);
+                    pool.invoke(task);
+                    if (task.throwable != null) rethrow(task.throwable);
+                } finally {
+                    pool.shutdown();
+                }
+            } else {
+                this.runNode(reporter);
+            }
+        } finally {
+            this.state.isRunningAllTests = false;
+            reporter.flush();
+            reporter.close();
+            if (this.state.results != null) {
+                this.state.results.close();
+                this.state.results = null;
+            }
+            if (this.state.baselines != null) {
+                this.state.baselines.close();
+                this.state.baselines = null;
             }
-            // filtering the stack trace
-            this.filterStackTrace(throwable);
-            return throwable;
         }
     }
 
     /**
-     * Prints out the strack trace of the throwable, but includes indentation
+     * Combines reporters with the reporters added by the "greentealatte.junit" and "greentealatte.jsonl"
+     * system properties
      *
-     * @param throwable the throwable whose track trace needs to be printed
+     * @param reporters reporters to receive every event in order, the properties add to the end of it
+     * @return single reporter passing every event on to all of them
      */
-    private void printIndentedStackTrace(Throwable throwable) {
-        System.out.printf("%s%s\n", this.getFullIdentation(2), throwable.toString());
-        for (StackTraceElement element : throwable.getStackTrace()) {
-            System.out.printf("%s%s\n", this.getFullIdentation(3), element.toString());
+    static GreenTeaLatteReporter combineReporters(List<GreenTeaLatteReporter> reporters) {
+        if (System.getProperty("greentealatte.junit") != null) {
+            reporters.add(new JUnitXmlReporter(System.getProperty("greentealatte.junit")));
         }
+        if (System.getProperty("greentealatte.jsonl") != null) {
+            reporters.add(new JsonLinesReporter(System.getProperty("greentealatte.jsonl")));
+        }
+        return reporters.size() > 1 ? new ReporterGroup(reporters) : reporters.get(0);
     }
 
     /**
-     * Create a child node
+     * Runs all children of the current node on the fork join pool
+     * <p>
+     * Every child is forked before any is joined. The output of the first child which has not completed
+     * is reported as it happens, later children are recorded until all earlier children complete, so the
+     * output keeps the run order.
      *
-     * @param parent parent of node being created
-     * @param nodeDescription description for the node
+     * @param reporter reporter to receive output
+     * @throws Throwable the first error that stopped a child from running, after all children complete
      */
-    private GreenTeaLatte(GreenTeaLatte parent, String nodeDescription) {
-        this.description = nodeDescription;
-        this.parent      = parent;
-        this.depth       = parent.depth + 1;
-        this.state       = parent.state;
-    }
+    private void runChildrenInParallel(GreenTeaLatteReporter reporter) {
+        LinkedList<SubtreeTask> tasks = new LinkedList<SubtreeTask>();
+        for (GreenTeaLatte child : this.getChildrenInRunOrder()) {
+            RecordingReporter recorder = new RecordingReporter();
+            if (tasks.isEmpty()) recorder.streamTo(reporter);
+            SubtreeTask task = new SubtreeTask(child, recorder);
+            task.fork();
+            tasks.add(task);
+        }
 
-    /**
-     * Creates a GreenTeaLatte instance
-     */
-    public GreenTeaLatte() {
-        this.description       = "Brewing a Green Tea Latte:";
-        this.parent            = null;
-        this.state             = new GTLState();
-        this.state.currentNode = this;
+        Throwable firstThrowable = null;
+        for (SubtreeTask task : tasks) {
+            // all earlier children are complete, so this child reports straight through from now on
+            ((RecordingReporter) task.reporter).streamTo(reporter);
+            task.join();
+            this.addChildStatistics(task.node);
+            if (task.node.body != null) task.node.release();
+            if (firstThrowable == null) firstThrowable = task.throwable;
+        }
+        if (firstThrowable != null) rethrow(firstThrowable);
     }
 
     /**
-     * Creates a GreenTeaLatte instance with a description
+     * Runs the before hooks of the current node, unless they already ran this run
      *
-     * @param description description for entire testing tree
+     * @param reporter reporter to receive output
+     * @throws Throwable any error that occured in a hook
      */
-    public GreenTeaLatte(String description) {
-        this.description       = description;
-        this.parent            = null;
-        this.state             = new GTLState();
-        this.state.currentNode = this;
+    private void runBeforeHooks(GreenTeaLatteReporter reporter) {
+        if (this.haveBeforeHooksRun) return;
+        this.haveBeforeHooksRun = true;
+        this.runHooks(reporter, this.beforeHooks, "before");
     }
 
     /**
-     * Sets the output indentation to the desired amount of spaces
+     * Runs the hooks and selected tests of the current node
+     * <p>
+     * The before hooks run just before the first test which actually runs. Under a filter, a node whose
+     * subtree ran no test runs no hooks, such as when no case of a parameterized test is selected.
+     * Without a filter, the hooks of a node always run.
+     * <p>
+     * Consecutive async tests are started one after the other, with up to the async concurrency
+     * limit in flight at once. They are finished, reported, and have their afterEach hooks run in
+     * the order they were started.
      *
-     * @param amountOfSpaces amount of spaces
+     * @param reporter reporter to receive output
+     * @throws Throwable any error that occured in a hook
      */
-    public void setIndentationToSpaces(int amountOfSpaces) {
-        // indentation information only kept on the root node
-        String newIndentation = "";
+    private void runOwnTests(GreenTeaLatteReporter reporter) {
+        // hooks and tests find describe fixtures through the running node, restored for a thread which joined on a
+        // pool in the middle of another node
+        GreenTeaLatte previousNode = this.state.runningNode.get();
+        this.state.runningNode.set(this);
+        this.haveBeforeHooksRun = false;
+        try {
+            // run each selected test
+            LinkedList<AsyncTest> inFlight = new LinkedList<AsyncTest>();
+            for (ExtendedRunnable test : this.getTestsInRunOrder()) {
+                if (this.hasBailed() || this.isAborted) {
+                    // tests started before the run bailed are reported first, to keep the run order
+                    while (!inFlight.isEmpty()) this.finishAsyncTest(reporter, inFlight.poll());
+                    this.skipTest(reporter, test.description);
+                    continue;
+                }
+                if (test instanceof AsyncRunnable) {
+                    if (inFlight.size() >= this.state.asyncConcurrency) this.finishAsyncTest(reporter, inFlight.poll());
 
-        for (int i = 0; i < amountOfSpaces; i++) newIndentation += " ";
-        this.state.singleIndentation = newIndentation;
-    }
+                    // run all individual before hooks, then start the test without waiting for it
+                    this.runBeforeHooks(reporter);
+                    this.runHooks(reporter, this.beforeEachHooks, "beforeEach");
+                    inFlight.add(this.startAsyncTest(test));
+                    continue;
+                }
+                while (!inFlight.isEmpty()) this.finishAsyncTest(reporter, inFlight.poll());
+                if (test instanceof EachRunnable) {
+                    this.runEachTest(reporter, (EachRunnable) test);
+                    continue;
+                }
 
-    /**
-     * Creates a new node (branch) in the testing code with a description of it
-     * <p>
-     * {@code GreenTeaLatte deliciousLatte = new GreenTeaLatte();
-     * deliciousLatte.describe("className", () -> {
-     *     deliciousLatte.describe("methodName", () -> {
-     *         // define tests and hooks for testing methodName
-     *     });
-     * });}
-     *
-     * @param nodeDescription description of the new node
-     * @param nodeCode code for the tests in the current node
-     */
-    public void describe(String nodeDescription, Runnable nodeCode) {
-        if (this.state.isRunningAllTests) {
-            throw new IllegalStateException("Cannot call 'describe' within a test or hook runnable.");
-        }
-        // creating the new child with appropriate parent, and add to tree
-        GreenTeaLatte child = new GreenTeaLatte(this.state.currentNode, nodeDescription);
+                // run all individual before hooks
+                this.runBeforeHooks(reporter);
+                this.runHooks(reporter, this.beforeEachHooks, "beforeEach");
 
-        this.state.currentNode.children.add(child);
+                // running the test
+                TestExecution execution = new TestExecution(this);
 
-        // update current branch
-        this.state.currentNode = child;
+                // call the test
+                long startTime      = System.nanoTime();
+                Throwable throwable = this.executeTest(test.runnable, this.getTimeoutMillis(test), execution);
+                long duration       = System.nanoTime() - startTime;
+                this.finishTest(reporter, test.description, execution, duration, throwable);
+            }
+            while (!inFlight.isEmpty()) this.finishAsyncTest(reporter, inFlight.poll());
 
-        // process child code
-        nodeCode.run();
+            // nodes without a test of their own run their hooks once a descendant ran a test
+            boolean hasRunTests = this.successfulTests + this.pendingTests + this.failedTests > 0;
+            if ((this.state.selection == null || hasRunTests) && !this.hasBailed()) this.runBeforeHooks(reporter);
 
-        // child code complete, reset current branch
-        this.state.currentNode = child.parent;
+            // run all after hooks, only when the before hooks ran
+            if (this.haveBeforeHooksRun) this.runHooks(reporter, this.afterHooks, "after");
+        } finally {
+            this.state.runningNode.set(previousNode);
+        }
     }
 
     /**
-     * Creates and attaches a pending test to the current node
-     * <p>
-     * A pending test is a test that does not have the test code written yet.
-     * Pending tests will result in a warning, but not an error.
-     * <p>
-     * This is meant to be called with the runnable of a describe method, but can be be
-     * called on the root node.
+     * Reports a test which has finished running, then runs the afterEach hooks and tears down its test fixtures
      *
-     * @param testDescription description of the pending test
+     * @param reporter reporter to receive output
+     * @param description description of the test which finished
+     * @param execution state of the test execution
+     * @param duration how long the test took in nanoseconds
+     * @param throwable the filtered throwable which failed the test, or null
+     * @throws Throwable any error that occured in a hook
      */
-    public void it(String testDescription) {
-        if (this.state.isRunningAllTests) {
-            throw new IllegalStateException("Cannot call 'it' within a test or hook runnable.");
+    private void finishTest(GreenTeaLatteReporter reporter, String description, TestExecution execution,
+        long duration, Throwable throwable) {
+        this.recordTiming(description, null, duration);
+        if (execution.measurements != null) this.checkBaselines(description, execution);
+
+        // report the test and check for successful, pending, or failed
+        GreenTeaLatteReporter.Outcome outcome;
+        if (execution.hasFailedTest) {
+            this.failedTests++;
+            this.state.failedTestCount.incrementAndGet();
+            outcome = GreenTeaLatteReporter.Outcome.FAILED;
+        } else if (!execution.wasAssertTestCalled) {
+            this.pendingTests++;
+            outcome = GreenTeaLatteReporter.Outcome.PENDING;
+        } else {
+            this.successfulTests++;
+            outcome = GreenTeaLatteReporter.Outcome.PASSED;
+        }
+        if (execution.event != null && execution.event.shouldCommit()) {
+            execution.event.path    = this.getPath(description);
+            execution.event.outcome = FlightRecorderEvents.getOutcome(outcome);
+            execution.event.commit();
+        }
+        reporter.testFinished(this.depth, description, outcome, duration, throwable);
+        if (execution.details != null) {
+            for (String detail : execution.details) reporter.testDetailed(this.depth, detail);
+        }
+        if (this.state.results != null) {
+            this.state.results.write(new ResultFile.Record(outcome, duration, this.getPathSegments(description)));
+        }
+
+        // run all individual after hooks
+        this.runHooks(reporter, this.afterEachHooks, "afterEach");
+
+        // test fixtures live until the afterEach hooks are done with them, or as long as a test which timed out runs
+        if (execution.fixtures != null && !this.isAborted) {
+            this.tearDownFixtureInstances(reporter, execution.fixtures, false);
         }
-        // add test to current level
-        this.state.currentNode.tests.add(new ExtendedRunnable(testDescription, () -> {}));
     }
 
     /**
-     * Creates and attaches a test to the current node
-     * <p>
-     * This is meant to be called with the runnable of a describe method, but can be be
-     * called on the root node.
+     * Runs each case of a parameterized test as it is taken from the source
      * <p>
-     * Not including a "assertTest" call within a test will act as a pending test and result in a warning.
+     * Every case is run and reported like a separate test, with the beforeEach and afterEach hooks
+     * running around it. Cases are selected one by one using the path created from their description.
      *
-     * @param testDescription description of the test
-     * @param testCode code for the test
+     * @param reporter reporter to receive output
+     * @param each parameterized test to run
+     * @throws Throwable any error that occured in a hook
      */
-    public void it(String testDescription, Runnable testCode) {
-        if (this.state.isRunningAllTests) {
-            throw new IllegalStateException("Cannot call 'it' within a test or hook runnable.");
+    private void runEachTest(GreenTeaLatteReporter reporter, EachRunnable each) {
+        long timeoutMillis = this.getTimeoutMillis(each);
+        Iterator<?>[] inputs = new Iterator<?>[1]; // created by the first case of the run
+        Object[] nextCase    = new Object[2];      // input and description of the next case, null when there is none
+        while (!this.hasBailed() && !this.isAborted) {
+            // a source or template which throws fails the parameterized test instead of stopping the run
+            nextCase[0] = null;
+            nextCase[1] = null;
+            Throwable sourceThrowable = this.executeWithFilteredStackTrace(() -> {
+                if (inputs[0] == null) inputs[0] = each.inputs.get();
+                if (!inputs[0].hasNext()) return;
+                nextCase[0] = inputs[0].next();
+                nextCase[1] = formatCase(each.description, nextCase[0]);
+            }, null);
+            if (sourceThrowable != null) {
+                this.runBeforeHooks(reporter);
+                this.runHooks(reporter, this.beforeEachHooks, "beforeEach");
+                TestExecution execution = new TestExecution(this);
+                execution.hasFailedTest = true;
+                this.finishTest(reporter, each.description, execution, 0, sourceThrowable);
+                return;
+            }
+            if (nextCase[1] == null) return;
+            Object input       = nextCase[0];
+            String description = (String) nextCase[1];
+            if (this.state.selection != null && !this.state.selection.test(this.getPathSegments(description))) {
+                continue;
+            }
+
+            // run all individual before hooks
+            this.runBeforeHooks(reporter);
+            this.runHooks(reporter, this.beforeEachHooks, "beforeEach");
+
+            // call the case
+            TestExecution execution = new TestExecution(this);
+            long startTime          = System.nanoTime();
+            Throwable throwable     = this.executeTest(() -> each.eachCode.accept(input), timeoutMillis, execution);
+            long duration           = System.nanoTime() - startTime;
+            this.finishTest(reporter, description, execution, duration, throwable);
         }
-        // add test to current level
-        this.state.currentNode.tests.add(new ExtendedRunnable(testDescription, testCode));
     }
 
     /**
-     * Evaluates the result from a test expression
-     * <p>
-     * This must be called within a test (inside a runnable passed to the `it` method)
-     * used to determine if a test failed or passed
+     * Creates the description of a single case of a parameterized test
      *
-     * @param resultFromTestExpression boolean from a user defined test expression
+     * @param template format of the description, see itEach
+     * @param input input of the case
+     * @return description of the case
      */
-    public void assertTest(Boolean resultFromTestExpression) {
-        if (!this.state.isRunningTest) {
-            throw new IllegalStateException("All 'assertTest' calls must be made within an 'it' call");
-        }
-        this.state.wasAssertTestCalled = true;
-        if (!resultFromTestExpression) {
-            this.state.hasFailedTest         = true;
-            this.state.currentAssertionError = new AssertionError();
-            throw this.state.currentAssertionError;
-        }
+    private static String formatCase(String template, Object input) {
+        if (input instanceof Object[]) return String.format(template, (Object[]) input);
+        return String.format(template, input);
     }
 
     /**
-     * Define a block of code to run before the current node executes any tests
-     * <p>
-     * This only runs once for the "describe" node that it is defined in.
-     * Multiple before code blocks can be defined. When there are multiple
-     * blocks defined, they will execute in the order that they are defined.
+     * Starts an async test without waiting for its future to complete
      *
-     * @param description description for the setup
-     * @param setup code for the setup
+     * @param test async test to start
+     * @return the started test
      */
-    public void before(String description, Runnable setup) {
-        if (this.state.isRunningAllTests) {
-            throw new IllegalStateException("Cannot call 'before' within a test or hook runnable.");
+    private AsyncTest startAsyncTest(ExtendedRunnable test) {
+        AsyncTest asyncTest        = new AsyncTest(this, test);
+        TestExecution previousTest = this.state.currentTest.get();
+        this.state.currentTest.set(asyncTest.execution);
+        if (asyncTest.execution.event != null) asyncTest.execution.event.testThread = Thread.currentThread();
+        try {
+            asyncTest.future = ((AsyncRunnable) test).asyncCode.get();
+            if (asyncTest.future == null) {
+                throw new NullPointerException("Async test returned null instead of a CompletableFuture");
+            }
+        } catch (Throwable throwable) {
+            asyncTest.execution.hasFailedTest = true;
+            if (!(throwable instanceof TestFailure)) filterStackTrace(throwable);
+            asyncTest.throwable = throwable;
+        } finally {
+            this.state.currentTest.set(previousTest);
         }
-        // add hook to current level
-        this.state.currentNode.beforeHooks.add(new ExtendedRunnable(description, setup));
+        return asyncTest;
     }
 
     /**
-     * Define a block of code to run after the current node executes any tests
-     * <p>
-     * This only runs once for the "describe" node that it is defined in.
-     * Multiple after code blocks can be defined. When there are multiple
-     * blocks defined, they will execute in the order that they are defined.
+     * Waits for an async test to complete, then reports it
      *
-     * @param description description for the cleanup
-     * @param cleanup code for the cleanup
+     * @param reporter reporter to receive output
+     * @param asyncTest test to finish
+     * @throws Throwable any error that occured in a hook
      */
-    public void after(String description, Runnable cleanup) {
-        if (this.state.isRunningAllTests) {
-            throw new IllegalStateException("Cannot call 'after' within a test or hook runnable.");
+    private void finishAsyncTest(GreenTeaLatteReporter reporter, AsyncTest asyncTest) {
+        Throwable throwable = asyncTest.throwable;
+        if (throwable == null) {
+            long timeoutMillis = this.getTimeoutMillis(asyncTest.test);
+            try {
+                if (timeoutMillis == 0) {
+                    asyncTest.future.get();
+                } else {
+                    long elapsedMillis = (System.nanoTime() - asyncTest.startTime) / 1000000;
+                    asyncTest.future.get(Math.max(0, timeoutMillis - elapsedMillis), TimeUnit.MILLISECONDS);
+                }
+            } catch (ExecutionException exception) {
+                throwable = exception.getCause();
+                while (throwable instanceof CompletionException && throwable.getCause() != null) {
+                    throwable = throwable.getCause();
+                }
+                if (!(throwable instanceof TestFailure)) filterStackTrace(throwable);
+            } catch (TimeoutException exception) {
+                throwable = new AssertionError(String.format("Test timed out after %d ms", timeoutMillis));
+                throwable.setStackTrace(new StackTraceElement[0]);
+                asyncTest.future.cancel(true);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throwable = exception;
+            } catch (CancellationException exception) {
+                throwable = exception;
+            }
+            if (throwable != null) asyncTest.execution.hasFailedTest = true;
         }
-        // add hook to current level
-        this.state.currentNode.afterHooks.add(new ExtendedRunnable(description, cleanup));
+        long duration = System.nanoTime() - asyncTest.startTime;
+        this.finishTest(reporter, asyncTest.test.description, asyncTest.execution, duration, throwable);
     }
 
     /**
-     * Define a block of code to run before each test
-     * <p>
-     * This only runs once for each "it" test in the current node.
-     * Multiple before code blocks can be defined. When there are multiple
-     * blocks defined, they will execute in the order that they are defined.
+     * Ends the flight recorder event of the current node, when a recording wants it
      *
-     * @param description description for the setup
-     * @param setup code for the setup
+     * @param event event begun when the node started, or null without a recording
+     * @param hasFailed true if a test in the subtree failed, or an error stopped the subtree
      */
-    public void beforeEach(String description, Runnable setup) {
-        if (this.state.isRunningAllTests) {
-            throw new IllegalStateException("Cannot call 'beforeEach' within a test or hook runnable.");
-        }
-        // add hook to current level
-        this.state.currentNode.beforeEachHooks.add(new ExtendedRunnable(description, setup));
+    private void commitDescribeEvent(FlightRecorderEvents.DescribeEvent event, boolean hasFailed) {
+        if (event == null || !event.shouldCommit()) return;
+        event.path    = this.getPath(null);
+        event.outcome = FlightRecorderEvents.getOutcome(hasFailed);
+        event.passed  = this.successfulTests;
+        event.pending = this.pendingTests;
+        event.failed  = this.failedTests;
+        event.commit();
     }
 
     /**
-     * Define a block of code to run after each test
+     * Reports a test which did not start because the run bailed or the node was aborted, as a pending test
      * <p>
-     * This only runs once for each "it" test in the current node.
-     * Multiple before code blocks can be defined. When there are multiple
-     * blocks defined, they will execute in the order that they are defined.
+     * Skipped tests are not written to the result file, so a rerun of failed and new tests still runs them.
      *
-     * @param description description for the cleanup
-     * @param cleanup code for the cleanup
+     * @param reporter reporter to receive output
+     * @param description description of the test
      */
-    public void afterEach(String description, Runnable cleanup) {
-        if (this.state.isRunningAllTests) {
-            throw new IllegalStateException("Cannot call 'afterEach' within a test or hook runnable.");
-        }
-        // add hook to current level
-        this.state.currentNode.afterEachHooks.add(new ExtendedRunnable(description, cleanup));
+    private void skipTest(GreenTeaLatteReporter reporter, String description) {
+        this.pendingTests++;
+        reporter.testFinished(this.depth, description, GreenTeaLatteReporter.Outcome.PENDING, 0, null);
+        reporter.testDetailed(this.depth, this.isAborted ? "skipped, " + ABORTED_REASON :
+            String.format("skipped, the run stopped after %d failed tests", this.state.runBail));
     }
 
     /**
-     * Loops through all hooks in a linked list and executes them
+     * Reports a hook which did not run because the node was aborted, as a failed hook
      *
-     * @param LinkedList<ExtendedRunnable> list of hooks
-     * @throws Throwable any error that occured in a hook
+     * @param reporter reporter to receive output
+     * @param description description of the hook
      */
-    private void runHooks(LinkedList<ExtendedRunnable> hooks) {
-        for (ExtendedRunnable hook : hooks) {
-            System.out.printf("%s%s\n", this.getFullIdentation(1), hook.description);
-            Throwable throwable = this.executeWithFilteredStackTrace(hook.runnable);
-            if (throwable != null) {
-                // throwing the error, otherwise it won't show up in test results
-                Error error = new Error(throwable);
-                this.filterStackTrace(error);
-                throw error;
-            }
-        }
+    private void skipHook(GreenTeaLatteReporter reporter, String description) {
+        AssertionError error = new AssertionError("Skipped, " + ABORTED_REASON);
+        error.setStackTrace(new StackTraceElement[0]);
+        reporter.hookStarted(this.depth, description);
+        reporter.hookFinished(this.depth, description, 0);
+        reporter.hookFailed(this.depth, description, error);
     }
 
     /**
-     * Runs all tests that have been defined
+     * Reports the current node and its descendants as skipped because the run bailed
      * <p>
-     * Runs deepest level tests first.
+     * Selected tests are reported as pending and no hooks run. The tests of a lazy node which has not been
+     * built are unknown, so only its description is reported.
      *
-     * @throws Throwable any error that occured to stop tests from running or
-     * throws a RuntimeException after all tests have been run if one of them failed
+     * @param reporter reporter to receive output
      */
-    public void run() {
-        // log information about current node (description)
-        if (!this.isRoot()) System.out.println();
-        System.out.println(this.toString());
+    private void skipNode(GreenTeaLatteReporter reporter) {
+        if (!this.isSelected) return;
 
-        // run children first before executing tests
-        for (GreenTeaLatte child : this.children) child.run();
-        if (this.children.size() > 0) System.out.println();
+        // under a filter, the header is only reported once the subtree reports a test
+        if (this.state.selection != null && !this.isRoot()) reporter = new DeferredHeaderReporter(reporter);
+        reporter.describeStarted(this.depth, this.description);
+        for (GreenTeaLatte child : this.getChildrenInRunOrder()) {
+            child.skipNode(reporter);
+            this.addChildStatistics(child);
+        }
+        for (ExtendedRunnable test : this.getTestsInRunOrder()) this.skipTest(reporter, test.description);
+        reporter.describeFinished(this.depth, this.successfulTests, this.pendingTests, this.failedTests,
+            this.durationNanos);
+    }
 
-        this.state.isRunningAllTests = true;
+    /**
+     * Stops the thread of the current node, once none of its tests, hooks or fixture teardowns are left to run
+     */
+    private void shutDownNodeExecutor() {
+        if (this.nodeExecutor == null) return;
+        this.nodeExecutor.shutdown();
+        this.nodeExecutor = null;
+    }
 
-        // run all before hooks
-        this.runHooks(this.beforeHooks);
+    /**
+     * Runs all tests in the current node and its descendants
+     *
+     * @param reporter reporter to receive output
+     * @throws Throwable any error that occured to stop tests from running
+     */
+    private void runNode(GreenTeaLatteReporter reporter) {
+        // nodes which have not started when the run bails are reported as skipped, without running their hooks
+        this.isAborted = false;
+        if (this.hasBailed()) {
+            this.skipNode(reporter);
+            return;
+        }
 
-        // run each test
-        for (ExtendedRunnable test : this.tests) {
-            // run all individual before hooks
-            this.runHooks(this.beforeEachHooks);
-
-            // running the test
-
-            // resetting state related to state
-            this.state.wasAssertTestCalled = false;
-            this.state.hasFailedTest       = false;
-
-            // call the test
-            this.state.currentNode   = this;
-            this.state.isRunningTest = true;
-            Throwable throwable = this.executeWithFilteredStackTrace(test.runnable);
-            this.state.isRunningTest = false;
-
-            // report the test and check for successful, pending, or failed
-            String symbolForTest = "";
-            if (this.state.hasFailedTest) {
-                this.incrementFailedTests();
-                symbolForTest = SYMBOL_FAILED;
-            } else if (!this.state.wasAssertTestCalled) {
-                this.incrementPendingTests();
-                symbolForTest = SYMBOL_WARNING;
-            } else {
-                this.incrementSuccessfulTests();
-                symbolForTest = SYMBOL_SUCCESSFUL;
+        FlightRecorderEvents.DescribeEvent event = FlightRecorderEvents.beginDescribe();
+        if (this.body != null) {
+            try {
+                if (!this.isBuilt) this.build();
+            } catch (Throwable throwable) {
+                this.commitDescribeEvent(event, true);
+                throw throwable;
             }
-            System.out.printf("%s%s %s\n", this.getFullIdentation(1), symbolForTest, test.description);
-            if (throwable != null) {
-                this.printIndentedStackTrace(throwable);
+            if (!this.isSelected) {
+                // the node is not reported, so neither is its event
+                if (event != null) event.end();
+                return;
             }
-
-            // run all individual after hooks
-            this.runHooks(this.afterEachHooks);
         }
 
-        // run all after hooks
-        this.runHooks(this.afterHooks);
+        // under a filter, the header is only reported once the subtree reports a hook or test
+        if (this.state.selection != null && !this.isRoot()) reporter = new DeferredHeaderReporter(reporter);
 
-        // report information on amount of tests successful, pending, and failed
-        if (this.isRoot()) System.out.println("Test Summary:");
-        else System.out.println();
+        // log information about current node (description)
+        reporter.describeStarted(this.depth, this.description);
 
-        System.out.printf("%s%d passed %s\n", this.getFullIdentation(1), this.successfulTests, SYMBOL_SUCCESSFUL);
-        if (this.pendingTests > 0) {
-            System.out.printf("%s%d pending %s\n", this.getFullIdentation(1), this.pendingTests, SYMBOL_WARNING);
-        }
-        System.out.printf("%s%d failed %s\n", this.getFullIdentation(1), this.failedTests, SYMBOL_FAILED);
+        try {
+            // run children first before executing tests
+            if (this.state.parallelism > 1 && this.childCount > 1) {
+                this.runChildrenInParallel(reporter);
+            } else {
+                for (GreenTeaLatte child : this.getChildrenInRunOrder()) {
+                    child.runNode(reporter);
+                    this.addChildStatistics(child);
+                    if (child.body != null) child.release();
+                }
+            }
 
-        if (this.isRoot()) {
-            System.out.println();
-            if (this.pendingTests > 0) System.out.printf("%s %d pending tests!\n", SYMBOL_WARNING, this.pendingTests);
-            if (this.failedTests <= 0) System.out.printf("%s All tests passed!\n", SYMBOL_SUCCESSFUL);
-            else System.out.printf("%s Tests have failed!\n", SYMBOL_FAILED);
+            // hooks only run for nodes with a selected test in their subtree, and not once the run bails
+            if (this.isSelected) this.runOwnTests(reporter);
+        } catch (Throwable throwable) {
+            // fixtures are still cleaned up, without hiding the error
+            this.tearDownFixtures(reporter, true);
+            this.shutDownNodeExecutor();
+            this.commitDescribeEvent(event, true);
+            throw throwable;
+        }
+        try {
+            this.tearDownFixtures(reporter, false);
+        } finally {
+            this.shutDownNodeExecutor();
         }
+        this.commitDescribeEvent(event, this.failedTests > 0);
 
-        this.state.isRunningAllTests = false;
+        // report information on amount of tests successful, pending, and failed
+        reporter.describeFinished(this.depth, this.successfulTests, this.pendingTests, this.failedTests,
+            this.durationNanos);
 
-        // throwing runtime exception if at least one test failed on the full tree
-        if (this.isRoot() && this.failedTests > 0) {
-            throw new Error("Did not pass all tests");
+        if (this.isRoot() && this.slowest != null) {
+            // slowest first
+            LinkedList<Timing> timings = new LinkedList<Timing>();
+            while (!this.slowest.isEmpty()) timings.addFirst(this.slowest.poll());
+            int rank = 1;
+            for (Timing timing : timings) reporter.slowReported(rank++, timing.getPath(), timing.durationNanos);
         }
-    } /* run */
+    } /* runNode */
 
     /**
      * Create a human readable string of current node
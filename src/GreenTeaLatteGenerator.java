@@ -0,0 +1,201 @@
+package greentealatte.src;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Creates random inputs for "forAll" properties, and simpler versions of an input for shrinking
+ * <p>
+ * Every sample of a property gets its own random source, so inputs can be created on any thread
+ * and the same seed always creates the same inputs.
+ *
+ * @param <T> type of the inputs
+ */
+public interface GreenTeaLatteGenerator<T> {
+    /**
+     * Creates a random input
+     *
+     * @param random source of randomness for this input only
+     * @return the input
+     */
+    T generate(SplittableRandom random);
+
+    /**
+     * Creates simpler versions of an input, used to shrink a counterexample
+     * <p>
+     * Candidates are tried in order, so the simplest should come first. The default has no candidates,
+     * which reports the counterexample as it was generated.
+     *
+     * @param value input to simplify
+     * @return simpler inputs, an empty list when the input cannot be simplified
+     */
+    default List<T> shrink(T value) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Creates integers from min to max inclusive, which shrink towards 0 or the bound closest to it
+     *
+     * @param min smallest integer
+     * @param max largest integer
+     * @return the generator
+     */
+    static GreenTeaLatteGenerator<Integer> integers(int min, int max) {
+        if (min > max) throw new IllegalArgumentException("Minimum cannot be larger than maximum.");
+        GreenTeaLatteGenerator<Long> longs = longs(min, max);
+        return new GreenTeaLatteGenerator<Integer>() {
+            @Override
+            public Integer generate(SplittableRandom random) {
+                return (int) (long) longs.generate(random);
+            }
+
+            @Override
+            public List<Integer> shrink(Integer value) {
+                List<Integer> candidates = new ArrayList<Integer>();
+                for (long candidate : longs.shrink((long) value)) candidates.add((int) candidate);
+                return candidates;
+            }
+        };
+    }
+
+    /**
+     * Creates longs from min to max inclusive, which shrink towards 0 or the bound closest to it
+     *
+     * @param min smallest long
+     * @param max largest long
+     * @return the generator
+     */
+    static GreenTeaLatteGenerator<Long> longs(long min, long max) {
+        if (min > max) throw new IllegalArgumentException("Minimum cannot be larger than maximum.");
+        long target = Math.max(min, Math.min(max, 0));
+        return new GreenTeaLatteGenerator<Long>() {
+            @Override
+            public Long generate(SplittableRandom random) {
+                if (max < Long.MAX_VALUE) return random.nextLong(min, max + 1);
+                return min == Long.MIN_VALUE ? random.nextLong() : random.nextLong(min - 1, max) + 1;
+            }
+
+            @Override
+            public List<Long> shrink(Long value) {
+                // the target first, then halving the distance to it, then a single step towards it
+                List<Long> candidates = new ArrayList<Long>();
+                long distance = value - target;
+                while (distance != 0) {
+                    candidates.add(value - distance);
+                    distance /= 2;
+                }
+                long step = value > target ? value - 1 : value + 1;
+                if (value != target && !candidates.contains(step)) candidates.add(step);
+                return candidates;
+            }
+        };
+    }
+
+    /**
+     * Creates booleans, true shrinks to false
+     *
+     * @return the generator
+     */
+    static GreenTeaLatteGenerator<Boolean> booleans() {
+        return new GreenTeaLatteGenerator<Boolean>() {
+            @Override
+            public Boolean generate(SplittableRandom random) {
+                return random.nextBoolean();
+            }
+
+            @Override
+            public List<Boolean> shrink(Boolean value) {
+                return value ? Collections.singletonList(false) : Collections.<Boolean>emptyList();
+            }
+        };
+    }
+
+    /**
+     * Creates strings of characters from an alphabet, which shrink by removing characters and
+     * by replacing characters with the first character of the alphabet
+     *
+     * @param alphabet characters to choose from
+     * @param maxLength largest length
+     * @return the generator
+     */
+    static GreenTeaLatteGenerator<String> strings(String alphabet, int maxLength) {
+        if (alphabet.isEmpty()) throw new IllegalArgumentException("Alphabet cannot be empty.");
+        GreenTeaLatteGenerator<List<Character>> characters = lists(new GreenTeaLatteGenerator<Character>() {
+            @Override
+            public Character generate(SplittableRandom random) {
+                return alphabet.charAt(random.nextInt(alphabet.length()));
+            }
+
+            @Override
+            public List<Character> shrink(Character value) {
+                int index = alphabet.indexOf(value);
+                return index > 0 ? Collections.singletonList(alphabet.charAt(0)) : Collections.<Character>emptyList();
+            }
+        }, maxLength);
+        return new GreenTeaLatteGenerator<String>() {
+            @Override
+            public String generate(SplittableRandom random) {
+                return toString(characters.generate(random));
+            }
+
+            @Override
+            public List<String> shrink(String value) {
+                List<Character> chars = new ArrayList<Character>();
+                for (int i = 0; i < value.length(); i++) chars.add(value.charAt(i));
+                List<String> candidates = new ArrayList<String>();
+                for (List<Character> candidate : characters.shrink(chars)) candidates.add(toString(candidate));
+                return candidates;
+            }
+
+            private String toString(List<Character> chars) {
+                StringBuilder string = new StringBuilder(chars.size());
+                for (char character : chars) string.append(character);
+                return string.toString();
+            }
+        };
+    }
+
+    /**
+     * Creates lists of up to a maximum size, which shrink by removing elements and by shrinking elements
+     *
+     * @param elements generator of the elements
+     * @param maxSize largest size
+     * @return the generator
+     */
+    static <E> GreenTeaLatteGenerator<List<E>> lists(GreenTeaLatteGenerator<E> elements, int maxSize) {
+        if (maxSize < 0) throw new IllegalArgumentException("Maximum size cannot be negative.");
+        return new GreenTeaLatteGenerator<List<E>>() {
+            @Override
+            public List<E> generate(SplittableRandom random) {
+                int size     = random.nextInt(maxSize + 1);
+                List<E> list = new ArrayList<E>(size);
+                for (int i = 0; i < size; i++) list.add(elements.generate(random));
+                return list;
+            }
+
+            @Override
+            public List<List<E>> shrink(List<E> value) {
+                List<List<E>> candidates = new ArrayList<List<E>>();
+                // removing chunks, from the whole list down to single elements
+                for (int chunk = value.size(); chunk > 0; chunk /= 2) {
+                    for (int start = 0; start + chunk <= value.size(); start += chunk) {
+                        List<E> candidate = new ArrayList<E>(value.subList(0, start));
+                        candidate.addAll(value.subList(start + chunk, value.size()));
+                        candidates.add(candidate);
+                    }
+                }
+                // shrinking each element in place
+                for (int i = 0; i < value.size(); i++) {
+                    for (E element : elements.shrink(value.get(i))) {
+                        List<E> candidate = new ArrayList<E>(value);
+                        candidate.set(i, element);
+                        candidates.add(candidate);
+                    }
+                }
+                return candidates;
+            }
+        };
+    }
+}
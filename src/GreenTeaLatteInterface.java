@@ -1,11 +1,54 @@
 package greentealatte.src;
 
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
 interface GreenTeaLatteInterface {
     // GreenTeaLatteInterface is an inferace for a behavior driven development testing framework
 
     void setIndentationToSpaces(int amountOfSpaces);
     // sets the indentation for testing to the desired amount of spaces
 
+    void setReporter(GreenTeaLatteReporter reporter);
+    // sets the reporter which receives all output from running the tests
+
+    void addReporter(GreenTeaLatteReporter reporter);
+    // adds a reporter which receives the same output, such as a JUnit XML or JSON Lines file
+
+    void setSlowestReportSize(int amount);
+    // sets the amount of slowest tests and hooks listed after the test summary
+
+    void setGrep(String pattern);
+    // only runs tests whose full path contains a match for the regular expression
+
+    void setResultFile(String file);
+    // stores the outcome and duration of every test in a file, so later runs can use them
+
+    void setRerunMode(GreenTeaLatte.RerunMode mode);
+    // runs previously failed tests first, or only previously failed and new tests
+
+    void setShard(int shardIndex, int shardCount);
+    // only runs one shard of the tree, so the tree can be split over multiple processes
+
+    void setBail(int failures);
+    // stops starting tests once an amount of tests have failed, started categories still run their after hooks
+    // tests which did not start are reported as pending
+
+    void setShortestFirst(boolean isShortestFirst);
+    // runs the categories expected to finish soonest first, based on the durations in the result file
+
+    void setParallelism(int threads);
+    // sets the amount of threads used to run sibling categories
+    // output is still printed in the order that the categories were defined
+
+    void setLazy(boolean isLazy);
+    // defers running the code of each category until the category is reached while running
+
     void describe(String description, Runnable testsToBeRun);
     // creates a category in a tree structure, so a category can be created inside of another category
     // places tests inside of a category
@@ -18,10 +61,86 @@ interface GreenTeaLatteInterface {
     // creates a test to run
     // call inside of a category
 
+    void bench(String description, Supplier<?> benchmarkToRun);
+    // creates a benchmark which is warmed up and measured, results are reported below it
+    // call inside of a category
+
+    void bench(String description, Runnable benchmarkToRun);
+    // same as above, for a benchmark which does not produce a value
+
+    void setBenchmarkSamples(int warmupSamples, int measurementSamples);
+    // sets the amount of samples taken to warm up and to measure each benchmark
+
+    void it(String description, long timeoutMillis, Runnable testToRun);
+    // creates a test which fails if it runs for longer than the timeout
+
+    void itConcurrently(String description, int threads, int iterations, Runnable testToRun);
+    // creates a test which runs the code from a doubling amount of threads released together
+    // assertTest can be called from every thread, throughput and latency are reported below it
+    // without an assertTest call the test is pending
+
+    <T> void itEach(String descriptionTemplate, Iterator<T> inputs, Consumer<? super T> testToBeRun);
+    <T> void itEach(String descriptionTemplate, Stream<T> inputs, Consumer<? super T> testToBeRun);
+    <T> void itEach(String descriptionTemplate, Supplier<? extends Stream<T>> inputs, Consumer<? super T> testToBeRun);
+    // creates one test for each input, taken from the inputs while the tests run
+    // each test is described by formatting the template with its input
+    // iterators and streams are used up by the first run, a supplier creates the inputs again for every run
+
+    <T> void forAll(String description, GreenTeaLatteGenerator<T> generator, Predicate<? super T> property);
+    // creates a test which checks that a property holds for randomly generated inputs
+    // a failing input is shrunk to the simplest counterexample, which is reported with the seed
+
+    void setPropertySamples(int samples);
+    // sets the amount of random inputs each property is checked for
+
+    void setSeed(long seed);
+    // sets the seed which the inputs of every property are generated from
+
+    void itAsync(String description, Supplier<CompletableFuture<?>> testToStart);
+    // creates a test which completes when the returned future completes
+    // consecutive async tests in a category are in flight at the same time
+    // so they must not depend on beforeEach and afterEach hooks, unless the async concurrency is 1
+
+    void setAsyncConcurrency(int limit);
+    // sets the amount of async tests in a category which can be in flight at once
+
+    Executor getTestExecutor();
+    // executor for completion stages of the current test, so they can call assertTest
+
+    void setTimeout(long timeoutMillis);
+    // sets how long each test and hook may run for, in the current category or for the whole tree
+
     void assertTest(Boolean expressionToTest);
     // takes the boolean value of the result of a test and applies it to the test
     // call inside of a test
 
+    void assertTest(boolean expressionToTest);
+    // same as above without boxing, a passing result does not allocate
+
+    void assertFasterThan(long maxMillis, Runnable codeToMeasure);
+    // runs the code once and fails the test if it takes longer than the limit
+    // call inside of a test
+
+    void assertCpuTimeAtMost(long maxMillis, Runnable codeToMeasure);
+    // same as above for the cpu time of the calling thread
+
+    void assertAllocatesAtMost(long maxBytes, Runnable codeToMeasure);
+    // same as above for the bytes allocated by the calling thread
+
+    void assertNoRegression(Runnable codeToMeasure);
+    // compares the wall time, cpu time and allocated bytes of the code with the baseline stored for the test
+    // warns or fails when it is over the baseline by more than the regression tolerance
+
+    void setBaselineFile(String file);
+    // stores the baseline measurements of every test in a file
+    // the median of the first five measurements of a passing test becomes the baseline
+
+    void setBaselineRefresh(boolean isRefreshing);
+    // replaces the baselines of the tests measured while refreshing
+
+    void setRegressionTolerance(double warning, double tolerance);
+    // sets the fraction a measurement may be over its baseline before warning and before failing
+
     void before(String description, Runnable setup);
     // runs the setup runnable once before the category's tests begin
     // all hooks are run  in the order that defined
@@ -37,6 +156,17 @@ interface GreenTeaLatteInterface {
     void afterEach(String description, Runnable cleanup);
     // runs the cleanup runnable after each test in the category
 
+    <T> void fixture(String name, GreenTeaLatte.FixtureScope scope, Supplier<T> setup, Consumer<? super T> teardown);
+    <T> void fixture(String name, GreenTeaLatte.FixtureScope scope, Supplier<T> setup);
+    // registers a fixture which is created on first use and shared for its scope
+    // call while defining the tree, not within a lazy category
+
+    void uses(String name);
+    // declares that the category uses a fixture, which is kept until every category using it completes
+
+    <T> T getFixture(String name);
+    // gets the instance of a fixture, call inside of a test or hook
+
     void run();
     // runs all tests after the tests have been defined
 }
@@ -0,0 +1,107 @@
+package greentealatte.src;
+
+/**
+ * Receives the events produced while a GreenTeaLatte tree is running
+ * <p>
+ * Events arrive in the order that the tree was defined, even when subtrees run in parallel.
+ * Depth is 0 for the root node and increases by 1 for every nested "describe".
+ */
+public interface GreenTeaLatteReporter {
+    /**
+     * Result of a single test
+     */
+    enum Outcome {
+        PASSED,
+        PENDING,
+        FAILED
+    }
+
+    /**
+     * Called when a node starts running, before any of its children
+     *
+     * @param depth depth of the node
+     * @param description description of the node
+     */
+    void describeStarted(int depth, String description);
+
+    /**
+     * Called when a hook of a node starts running
+     *
+     * @param depth depth of the node which defined the hook
+     * @param description description of the hook
+     */
+    void hookStarted(int depth, String description);
+
+    /**
+     * Called when a hook of a node has finished running, including when it throws
+     *
+     * @param depth depth of the node which defined the hook
+     * @param description description of the hook
+     * @param durationNanos how long the hook took in nanoseconds
+     */
+    void hookFinished(int depth, String description, long durationNanos);
+
+    /**
+     * Called after hookFinished when a hook threw, or was skipped because it could not run
+     *
+     * @param depth depth of the node which defined the hook
+     * @param description description of the hook
+     * @param throwable the filtered throwable which failed the hook
+     */
+    default void hookFailed(int depth, String description, Throwable throwable) {}
+
+    /**
+     * Called when a test of a node has finished running
+     *
+     * @param depth depth of the node which defined the test
+     * @param description description of the test
+     * @param outcome whether the test passed, is pending, or failed
+     * @param durationNanos how long the test took in nanoseconds
+     * @param throwable the filtered throwable which failed the test, or null
+     */
+    void testFinished(int depth, String description, Outcome outcome, long durationNanos, Throwable throwable);
+
+    /**
+     * Called after testFinished for each additional line reported below a test, such as benchmark results
+     *
+     * @param depth depth of the node which defined the test
+     * @param detail line to report
+     */
+    default void testDetailed(int depth, String detail) {}
+
+    /**
+     * Called when a node and all of its descendants have finished running
+     *
+     * @param depth depth of the node
+     * @param passed amount of successful tests in the node and its descendants
+     * @param pending amount of pending tests in the node and its descendants
+     * @param failed amount of failed tests in the node and its descendants
+     * @param durationNanos time spent in tests and hooks of the node and its descendants
+     */
+    void describeFinished(int depth, int passed, int pending, int failed, long durationNanos);
+
+    /**
+     * Called after the root node has finished, once for each of the slowest tests and hooks
+     * <p>
+     * Ranks start at 1 for the slowest, the amount is set by setSlowestReportSize.
+     *
+     * @param rank position in the list of slowest tests and hooks
+     * @param path full path of the test or hook
+     * @param durationNanos how long the test or hook took in nanoseconds
+     */
+    void slowReported(int rank, String path, long durationNanos);
+
+    /**
+     * Writes out any buffered output
+     * <p>
+     * Called at least once when the tree stops running, including when a hook throws.
+     */
+    void flush();
+
+    /**
+     * Releases anything held open by the reporter, such as an output file
+     * <p>
+     * Called once after the final flush when the tree stops running, including when a hook throws.
+     */
+    default void close() {}
+}
@@ -0,0 +1,189 @@
+package greentealatte.src;
+
+import java.util.Locale;
+
+/**
+ * Streams the results of the tree to a file in the JUnit XML format read by CI systems
+ * <p>
+ * Every test becomes a "testcase" of a single "testsuite" named after the root node. The "classname"
+ * is the path of the node which defined the test and the "name" is the description of the test.
+ * The totals of the "testsuite" are written into space reserved at the start of the file once the
+ * tree has finished, so the file is written in a single pass.
+ */
+public class JUnitXmlReporter extends FileReporter {
+    // width reserved for each of the totals of the testsuite, fitting the longest value any of them can have
+    private static final int TOTAL_WIDTH = Math.max(("failures=\"" + Integer.MAX_VALUE + "\"").length(),
+        ("time=\"" + formatSeconds(Long.MIN_VALUE) + "\"").length());
+
+    // storage
+    private long          totalsPosition;
+    private int           tests;
+    private int           failures;
+    private int           skipped;
+    private long          durationNanos;
+    private String        openTestcase = null;
+    private StringBuilder testcaseBody = new StringBuilder();
+    private boolean       hasSystemOut = false;
+
+    /**
+     * Creates a JUnitXmlReporter
+     *
+     * @param file path of the file to write, replaced when the tree starts running
+     */
+    public JUnitXmlReporter(String file) {
+        super(file);
+    }
+
+    /**
+     * Appends text escaped for use in XML attributes and content
+     *
+     * @param xml builder to append to
+     * @param text text to escape
+     * @return the builder
+     */
+    private static StringBuilder escape(StringBuilder xml, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char character = text.charAt(i);
+            if (character == '&') xml.append("&amp;");
+            else if (character == '<') xml.append("&lt;");
+            else if (character == '>') xml.append("&gt;");
+            else if (character == '"') xml.append("&quot;");
+            else if (character < 0x20 && character != '\n' && character != '\r' && character != '\t') continue;
+            else xml.append(character);
+        }
+        return xml;
+    }
+
+    /**
+     * Formats nanoseconds as seconds, the unit of "time" attributes
+     * <p>
+     * Always uses a decimal point, whatever the default locale, as XML readers expect.
+     *
+     * @param nanos duration in nanoseconds
+     * @return the duration in seconds
+     */
+    private static String formatSeconds(long nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+    }
+
+    /**
+     * Pads a total so it fills the space reserved for it
+     *
+     * @param name name of the attribute
+     * @param value value of the attribute
+     * @return the attribute padded with trailing spaces
+     * @throws IllegalStateException if the attribute does not fit, as it would overwrite the next one
+     */
+    private static String formatTotal(String name, String value) {
+        String attribute = name + "=\"" + value + "\"";
+        if (attribute.length() > TOTAL_WIDTH) {
+            throw new IllegalStateException(
+                String.format("Total '%s' does not fit the space reserved for it", attribute));
+        }
+        return attribute + " ".repeat(TOTAL_WIDTH - attribute.length());
+    }
+
+    /**
+     * Writes the testcase waiting for details, if any
+     */
+    private void closeTestcase() {
+        if (this.openTestcase == null) return;
+        if (this.hasSystemOut) this.testcaseBody.append("]]></system-out>\n");
+        if (this.testcaseBody.length() == 0) {
+            this.write(this.openTestcase + "/>\n");
+        } else {
+            this.write(this.openTestcase + ">\n" + this.testcaseBody + "    </testcase>\n");
+        }
+        this.testcaseBody.setLength(0);
+        this.openTestcase = null;
+        this.hasSystemOut = false;
+    }
+
+    @Override
+    void writeHeader() {
+        this.tests         = 0;
+        this.failures      = 0;
+        this.skipped       = 0;
+        this.durationNanos = 0;
+        StringBuilder xml  = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testsuite name=\"");
+        this.write(escape(xml, this.getDescription(0)).append("\" ").toString());
+        this.totalsPosition = this.position();
+        this.write(" ".repeat(TOTAL_WIDTH * 5) + ">\n");
+    }
+
+    @Override
+    void writeFooter() {
+        this.closeTestcase();
+        this.write("</testsuite>\n");
+        this.overwrite(this.totalsPosition, formatTotal("tests", Integer.toString(this.tests))
+            + formatTotal("failures", Integer.toString(this.failures)) + formatTotal("errors", "0")
+            + formatTotal("skipped", Integer.toString(this.skipped))
+            + formatTotal("time", formatSeconds(this.durationNanos)));
+    }
+
+    @Override
+    public void describeStarted(int depth, String description) {
+        this.closeTestcase();
+        super.describeStarted(depth, description);
+    }
+
+    @Override
+    public void hookStarted(int depth, String description) {
+        this.closeTestcase();
+    }
+
+    @Override
+    public void hookFinished(int depth, String description, long durationNanos) {
+        this.durationNanos += durationNanos;
+    }
+
+    @Override
+    public void testFinished(int depth, String description, Outcome outcome, long durationNanos,
+        Throwable throwable) {
+        this.closeTestcase();
+        this.tests++;
+        this.durationNanos += durationNanos;
+        StringBuilder testcase = new StringBuilder("    <testcase classname=\"");
+        escape(testcase, depth == 0 ? this.getDescription(0) : this.getPath(depth, null)).append("\" name=\"");
+        escape(testcase, description).append("\" time=\"").append(formatSeconds(durationNanos)).append('"');
+        StringBuilder xml = this.testcaseBody;
+        if (outcome == Outcome.PENDING) {
+            this.skipped++;
+            xml.append("        <skipped/>\n");
+        } else if (outcome == Outcome.FAILED) {
+            this.failures++;
+            xml.append("        <failure");
+            if (throwable != null) {
+                if (throwable.getMessage() != null) {
+                    escape(xml.append(" message=\""), throwable.getMessage()).append('"');
+                }
+                escape(xml.append(" type=\""), throwable.toString().split(":", 2)[0]).append("\">");
+                escape(xml, throwable.toString());
+                for (StackTraceElement element : throwable.getStackTrace()) {
+                    escape(xml.append("\n\tat "), element.toString());
+                }
+                xml.append("</failure>\n");
+            } else {
+                xml.append("/>\n");
+            }
+        }
+        this.openTestcase = testcase.toString();
+    }
+
+    @Override
+    public void testDetailed(int depth, String detail) {
+        if (this.openTestcase == null) return;
+        if (!this.hasSystemOut) this.testcaseBody.append("        <system-out><![CDATA[");
+        else this.testcaseBody.append('\n');
+        this.testcaseBody.append(detail.replace("]]>", "]]]]><![CDATA[>"));
+        this.hasSystemOut = true;
+    }
+
+    @Override
+    public void describeFinished(int depth, int passed, int pending, int failed, long durationNanos) {
+        this.closeTestcase();
+    }
+
+    @Override
+    public void slowReported(int rank, String path, long durationNanos) {}
+}
@@ -0,0 +1,139 @@
+package greentealatte.src;
+
+/**
+ * Streams every event of the tree to a file as JSON Lines, one JSON object per line
+ * <p>
+ * Each object has an "event" field of "describe", "hook", "test", "detail" or "slow", and a "path"
+ * field holding the full path. Tests also have an "outcome" of "passed", "pending" or "failed", the
+ * matching "symbol", a "durationNanos", and for failed tests an "error" and the filtered "stackTrace".
+ */
+public class JsonLinesReporter extends FileReporter {
+    // storage
+    private String lastTestPath = "";
+
+    /**
+     * Creates a JsonLinesReporter
+     *
+     * @param file path of the file to write, replaced when the tree starts running
+     */
+    public JsonLinesReporter(String file) {
+        super(file);
+    }
+
+    /**
+     * Appends a string as a quoted JSON string
+     *
+     * @param json builder to append to
+     * @param text text to quote
+     * @return the builder
+     */
+    static StringBuilder quote(StringBuilder json, String text) {
+        json.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char character = text.charAt(i);
+            if (character == '"' || character == '\\') json.append('\\').append(character);
+            else if (character == '\n') json.append("\\n");
+            else if (character == '\r') json.append("\\r");
+            else if (character == '\t') json.append("\\t");
+            else if (character < 0x20) json.append(String.format("\\u%04x", (int) character));
+            else json.append(character);
+        }
+        return json.append('"');
+    }
+
+    /**
+     * Starts a JSON object for an event
+     *
+     * @param event type of the event
+     * @param path full path the event belongs to
+     * @return builder holding the unfinished object
+     */
+    private static StringBuilder startEvent(String event, String path) {
+        StringBuilder json = new StringBuilder("{\"event\":\"").append(event).append("\",\"path\":");
+        return quote(json, path);
+    }
+
+    /**
+     * Gets the symbol GreenTeaLatte prints for an outcome
+     *
+     * @param outcome outcome of a test
+     * @return the symbol
+     */
+    static String getSymbol(Outcome outcome) {
+        if (outcome == Outcome.FAILED) return GreenTeaLatte.SYMBOL_FAILED;
+        if (outcome == Outcome.PENDING) return GreenTeaLatte.SYMBOL_WARNING;
+        return GreenTeaLatte.SYMBOL_SUCCESSFUL;
+    }
+
+    @Override
+    void writeHeader() {}
+
+    @Override
+    void writeFooter() {}
+
+    @Override
+    public void hookStarted(int depth, String description) {}
+
+    @Override
+    public void hookFinished(int depth, String description, long durationNanos) {
+        StringBuilder json = startEvent("hook", this.getPath(depth, description));
+        this.write(json.append(",\"durationNanos\":").append(durationNanos).append("}\n").toString());
+    }
+
+    @Override
+    public void hookFailed(int depth, String description, Throwable throwable) {
+        StringBuilder json = startEvent("hookFailed", this.getPath(depth, description));
+        this.write(appendError(json, throwable).append("}\n").toString());
+    }
+
+    @Override
+    public void testFinished(int depth, String description, Outcome outcome, long durationNanos,
+        Throwable throwable) {
+        this.lastTestPath  = this.getPath(depth, description);
+        StringBuilder json = startEvent("test", this.lastTestPath);
+        json.append(",\"outcome\":\"").append(outcome.name().toLowerCase()).append('"');
+        json.append(",\"symbol\":\"").append(getSymbol(outcome)).append('"');
+        json.append(",\"durationNanos\":").append(durationNanos);
+        if (throwable != null) appendError(json, throwable);
+        this.write(json.append("}\n").toString());
+    }
+
+    /**
+     * Adds the error and filtered stack trace of a throwable to an event
+     *
+     * @param json builder holding the unfinished object
+     * @param throwable throwable to add
+     * @return the builder
+     */
+    private static StringBuilder appendError(StringBuilder json, Throwable throwable) {
+        quote(json.append(",\"error\":"), throwable.toString());
+        json.append(",\"stackTrace\":[");
+        StackTraceElement[] stackTrace = throwable.getStackTrace();
+        for (int i = 0; i < stackTrace.length; i++) {
+            if (i > 0) json.append(',');
+            quote(json, stackTrace[i].toString());
+        }
+        return json.append(']');
+    }
+
+    @Override
+    public void testDetailed(int depth, String detail) {
+        StringBuilder json = startEvent("detail", this.lastTestPath);
+        this.write(quote(json.append(",\"detail\":"), detail).append("}\n").toString());
+    }
+
+    @Override
+    public void describeFinished(int depth, int passed, int pending, int failed, long durationNanos) {
+        StringBuilder json = startEvent("describe", this.getPath(depth, null));
+        json.append(",\"passed\":").append(passed).append(",\"pending\":").append(pending);
+        json.append(",\"failed\":").append(failed).append(",\"durationNanos\":").append(durationNanos);
+        this.write(json.append("}\n").toString());
+    }
+
+    @Override
+    public void slowReported(int rank, String path, long durationNanos) {
+        StringBuilder json = startEvent("slow", path);
+        json.append(",\"rank\":").append(rank).append(",\"durationNanos\":").append(durationNanos);
+        this.write(json.append("}\n").toString());
+    }
+}
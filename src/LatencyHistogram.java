@@ -0,0 +1,104 @@
+package greentealatte.src;
+
+/**
+ * Counts latencies in buckets of bounded relative size, so percentiles can be found without storing every latency
+ * <p>
+ * Values below 16 each have their own bucket. Larger values share a bucket with the values which have the
+ * same 5 highest bits, so a bucket is at most 1/16 wider than its lowest value. Memory use is fixed no matter
+ * how many values are recorded. Not safe to record into from multiple threads, each thread records into its
+ * own histogram and the histograms are merged afterwards.
+ */
+class LatencyHistogram {
+    // bits of a value below its highest bit which choose the bucket
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+
+    // storage
+    private long[] counts = new long[(Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+    private long count    = 0;
+    private long max      = 0;
+
+    /**
+     * Gets the bucket of a value
+     *
+     * @param value value to find the bucket of, negative values count as 0
+     * @return index of the bucket
+     */
+    private static int getIndex(long value) {
+        if (value < SUB_BUCKETS) return (int) Math.max(0, value);
+        int highestBit = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket  = (int) (value >>> (highestBit - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (highestBit - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Gets the highest value which falls in a bucket
+     *
+     * @param index index of the bucket
+     * @return highest value of the bucket
+     */
+    private static long getHighestValue(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int highestBit = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lowest    = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (highestBit - SUB_BUCKET_BITS);
+        return lowest + (1L << (highestBit - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Records a value
+     *
+     * @param value value to record
+     */
+    void record(long value) {
+        this.counts[getIndex(value)]++;
+        this.count++;
+        if (value > this.max) this.max = value;
+    }
+
+    /**
+     * Adds all values recorded by another histogram
+     *
+     * @param other histogram to add
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < this.counts.length; i++) this.counts[i] += other.counts[i];
+        this.count += other.count;
+        this.max    = Math.max(this.max, other.max);
+    }
+
+    /**
+     * Gets the amount of recorded values
+     *
+     * @return amount of values
+     */
+    long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Gets the largest recorded value
+     *
+     * @return largest value, 0 when nothing was recorded
+     */
+    long getMax() {
+        return this.max;
+    }
+
+    /**
+     * Gets the value which a percentage of the recorded values are at or below
+     * <p>
+     * The highest value of the bucket holding the percentile is returned, so it may be up to 1/16 too high.
+     *
+     * @param percentile percentage between 0 and 100
+     * @return the value, 0 when nothing was recorded
+     */
+    long getPercentile(double percentile) {
+        long rank       = Math.max(1, (long) Math.ceil(percentile / 100 * this.count));
+        long cumulative = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            cumulative += this.counts[i];
+            if (cumulative >= rank) return Math.min(getHighestValue(i), this.max);
+        }
+        return this.max;
+    }
+}
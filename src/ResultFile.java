@@ -0,0 +1,376 @@
+package greentealatte.src;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores the outcome and duration of each test from a run in a compact text file
+ * <p>
+ * Each line holds one test: the outcome ordinal, the duration in nanoseconds, then the description of
+ * every "describe" above the test followed by the test description, all separated by tabs. Backslashes,
+ * tabs and line breaks inside of descriptions are escaped. Records are looked up by their key, the escaped
+ * descriptions separated by tabs as they are stored, so descriptions which contain " > " cannot collide.
+ * <p>
+ * Records are written while the tree runs into a temporary file next to the result file. When the
+ * file is closed, records from the previous run which were not run again are copied over, and the
+ * temporary file replaces the result file. Once keepOnlyExisting is called, only those whose test is
+ * still in the tree are copied.
+ */
+class ResultFile {
+    /**
+     * Result of a single test
+     */
+    static class Record {
+        // storage
+        GreenTeaLatteReporter.Outcome outcome;
+        long durationNanos;
+        String[] segments; // descriptions from the first "describe" down to the test
+
+        /**
+         * creates a Record
+         *
+         * @param outcome outcome of the test
+         * @param durationNanos how long the test took
+         * @param segments descriptions from the first "describe" down to the test
+         */
+        Record(GreenTeaLatteReporter.Outcome outcome, long durationNanos, String[] segments) {
+            this.outcome       = outcome;
+            this.durationNanos = durationNanos;
+            this.segments      = segments;
+        }
+
+        /**
+         * Creates the key of the test, see getKey
+         *
+         * @return key
+         */
+        String getKey() {
+            return ResultFile.getKey(this.segments);
+        }
+    }
+
+    // storage
+    private Path file;
+    private Path temporaryFile;
+    private BufferedWriter writer;
+    private Map<String, Record> previousRecords;
+
+    // previous records which are still in the tree, null keeps every previous record which did not run again
+    private Set<Record> existingRecords = null;
+
+    // keys of nodes whose tests are not known, such as unbuilt lazy nodes, every record below them is kept
+    private Set<String> unknownNodes = new HashSet<String>();
+
+    // keys of nodes with parameterized tests, whose cases are not known, every record directly in them is kept
+    private Set<String> parameterizedNodes = new HashSet<String>();
+
+    /**
+     * Opens a result file for writing the records of a new run
+     *
+     * @param file file to store the records in
+     * @param previousRecords records of the previous run, those not written again are kept
+     */
+    ResultFile(Path file, Map<String, Record> previousRecords) {
+        this.file            = file;
+        this.temporaryFile   = file.resolveSibling(file.getFileName() + ".tmp");
+        this.previousRecords = new LinkedHashMap<String, Record>(previousRecords);
+        try {
+            this.writer = Files.newBufferedWriter(this.temporaryFile, StandardCharsets.UTF_8);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * Gets the partial result file written by a shard
+     *
+     * @param file result file which the shards are merged into
+     * @param shardIndex index of the shard
+     * @return partial result file of the shard
+     */
+    static Path getShardFile(Path file, int shardIndex) {
+        return file.resolveSibling(file.getFileName() + ".shard" + shardIndex);
+    }
+
+    /**
+     * Gets the file in which the first shard stores the definition order of the subtrees of the root
+     *
+     * @param file result file which the shards are merged into
+     * @return path of the order file
+     */
+    static Path getOrderFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".order");
+    }
+
+    /**
+     * Writes descriptions to a file, one escaped description on each line
+     *
+     * @param file file to write
+     * @param descriptions descriptions to write in order
+     */
+    static void writeDescriptions(Path file, List<String> descriptions) {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (String description : descriptions) {
+                StringBuilder line = new StringBuilder();
+                escape(line, description);
+                writer.write(line.toString());
+                writer.write('\n');
+            }
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * Reads the descriptions written by writeDescriptions
+     *
+     * @param file file to read
+     * @return descriptions in order, empty if the file does not exist
+     */
+    static List<String> readDescriptions(Path file) {
+        List<String> descriptions = new ArrayList<String>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) descriptions.add(unescape(line));
+        } catch (NoSuchFileException exception) {
+            // written by an older version, or the first shard did not start
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        return descriptions;
+    }
+
+    /**
+     * Creates the key of a test or node, which is unique within a tree
+     *
+     * @param segments descriptions from the first "describe" down to the test or node
+     * @return the escaped descriptions separated by tabs
+     */
+    static String getKey(String[] segments) {
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) key.append('\t');
+            escape(key, segments[i]);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Reads all records of a result file
+     * <p>
+     * Malformed lines, such as those left by a run which was killed while writing, are skipped with a warning
+     * on standard error, as if their test never ran.
+     *
+     * @param file file to read
+     * @return records by key, empty if the file does not exist
+     */
+    static Map<String, Record> read(Path file) {
+        Map<String, Record> records = new LinkedHashMap<String, Record>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty()) continue;
+                try {
+                    Record record = parse(line);
+                    records.put(record.getKey(), record);
+                } catch (IllegalArgumentException exception) {
+                    System.err.printf("Skipping malformed line %d of %s: %s%n", lineNumber, file,
+                        exception.getMessage());
+                }
+            }
+        } catch (NoSuchFileException exception) {
+            // no previous run
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        return records;
+    }
+
+    /**
+     * Parses a single line of a result file
+     *
+     * @param line line to parse
+     * @return the record
+     * @throws IllegalArgumentException if the line is not a record, NumberFormatException for a malformed number
+     */
+    static Record parse(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length < 3) throw new IllegalArgumentException("Expected an outcome, a duration and a test.");
+        int ordinal = Integer.parseInt(fields[0]);
+        if (ordinal < 0 || ordinal >= GreenTeaLatteReporter.Outcome.values().length) {
+            throw new IllegalArgumentException(String.format("Unknown outcome %d.", ordinal));
+        }
+        String[] segments = new String[fields.length - 2];
+        for (int i = 0; i < segments.length; i++) segments[i] = unescape(fields[i + 2]);
+        return new Record(GreenTeaLatteReporter.Outcome.values()[ordinal], Long.parseLong(fields[1]), segments);
+    }
+
+    /**
+     * Formats a record as a single line, without a line separator
+     *
+     * @param record record to format
+     * @return the line
+     */
+    static String format(Record record) {
+        StringBuilder line = new StringBuilder();
+        line.append(record.outcome.ordinal()).append('\t').append(record.durationNanos);
+        for (String segment : record.segments) {
+            line.append('\t');
+            escape(line, segment);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Escapes backslashes, tabs and line breaks
+     *
+     * @param builder builder to append the escaped text to
+     * @param text text to escape
+     */
+    static void escape(StringBuilder builder, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char character = text.charAt(i);
+            if (character == '\\') builder.append("\\\\");
+            else if (character == '\t') builder.append("\\t");
+            else if (character == '\n') builder.append("\\n");
+            else if (character == '\r') builder.append("\\r");
+            else builder.append(character);
+        }
+    }
+
+    /**
+     * Reverses escape
+     *
+     * @param text escaped text
+     * @return original text
+     */
+    static String unescape(String text) {
+        if (text.indexOf('\\') < 0) return text;
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char character = text.charAt(i);
+            if (character == '\\' && i + 1 < text.length()) {
+                char escaped = text.charAt(++i);
+                if (escaped == 't') builder.append('\t');
+                else if (escaped == 'n') builder.append('\n');
+                else if (escaped == 'r') builder.append('\r');
+                else builder.append(escaped);
+            } else {
+                builder.append(character);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes the record of a test which has finished
+     * <p>
+     * Safe to call from multiple threads.
+     *
+     * @param record record to write
+     */
+    synchronized void write(Record record) {
+        this.previousRecords.remove(record.getKey());
+        try {
+            this.writer.write(format(record));
+            this.writer.write('\n');
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * Only keeps previous records of tests which are still in the tree, once the file is closed
+     * <p>
+     * The tests still in the tree are marked with markExisting, markUnknown and markParameterized.
+     */
+    synchronized void keepOnlyExisting() {
+        this.existingRecords = Collections.newSetFromMap(new IdentityHashMap<Record, Boolean>());
+    }
+
+    /**
+     * Marks the previous record of a test as still in the tree
+     * <p>
+     * Safe to call from multiple threads.
+     *
+     * @param record record from the previous records of the file
+     */
+    synchronized void markExisting(Record record) {
+        if (this.existingRecords != null) this.existingRecords.add(record);
+    }
+
+    /**
+     * Marks whether the tests below a node are known, keeping every record below it while they are not
+     * <p>
+     * Safe to call from multiple threads.
+     *
+     * @param nodeKey key of the node
+     * @param isUnknown true while the tests below the node are not known
+     */
+    synchronized void markUnknown(String nodeKey, boolean isUnknown) {
+        if (isUnknown) this.unknownNodes.add(nodeKey);
+        else this.unknownNodes.remove(nodeKey);
+    }
+
+    /**
+     * Marks a node as having parameterized tests, keeping every record directly in it
+     * <p>
+     * Safe to call from multiple threads.
+     *
+     * @param nodeKey key of the node
+     */
+    synchronized void markParameterized(String nodeKey) {
+        this.parameterizedNodes.add(nodeKey);
+    }
+
+    /**
+     * Checks if the previous record of a test which did not run again is kept
+     *
+     * @param record record to check
+     * @return true if the test may still be in the tree
+     */
+    private boolean isKept(Record record) {
+        if (this.existingRecords == null || this.existingRecords.contains(record)) return true;
+        StringBuilder nodeKey = new StringBuilder();
+        for (int i = 0; i < record.segments.length - 1; i++) {
+            if (i > 0) nodeKey.append('\t');
+            escape(nodeKey, record.segments[i]);
+            if (this.unknownNodes.contains(nodeKey.toString())) return true;
+        }
+        return this.parameterizedNodes.contains(nodeKey.toString());
+    }
+
+    /**
+     * Keeps the records of tests which did not run, then replaces the result file
+     */
+    synchronized void close() {
+        try {
+            for (Record record : this.previousRecords.values()) {
+                if (!this.isKept(record)) continue;
+                this.writer.write(format(record));
+                this.writer.write('\n');
+            }
+            this.writer.close();
+            Files.move(this.temporaryFile, this.file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+}
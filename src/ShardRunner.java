@@ -0,0 +1,252 @@
+package greentealatte.src;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a GreenTeaLatte tree split over multiple local processes, then merges the results
+ * <p>
+ * Every shard runs the same main class with the "greentealatte.shard" system property set, so the
+ * main class only has to define the tree and call run as usual.
+ */
+public class ShardRunner {
+    // properties of reports which are written once from the merged tree, rather than by every shard
+    private static final List<String> REPORT_PROPERTIES = List.of("greentealatte.junit", "greentealatte.jsonl");
+
+    /**
+     * Node of the tree rebuilt from the merged results
+     */
+    private static class MergedNode {
+        // storage
+        String description;
+        Map<String, MergedNode> children = new LinkedHashMap<String, MergedNode>();
+        List<ResultFile.Record> tests    = new LinkedList<ResultFile.Record>();
+
+        // testing statistics for current node and all descendants
+        int successfulTests = 0;
+        int pendingTests    = 0;
+        int failedTests     = 0;
+        long durationNanos  = 0;
+
+        /**
+         * creates a MergedNode
+         *
+         * @param description description of the node
+         */
+        MergedNode(String description) {
+            this.description = description;
+        }
+
+        /**
+         * Adds a test record below the current node, creating nodes along its path as needed
+         *
+         * @param record record to add
+         */
+        void add(ResultFile.Record record) {
+            MergedNode node = this;
+            for (int i = 0; i < record.segments.length - 1; i++) {
+                node = node.children.computeIfAbsent(record.segments[i], MergedNode::new);
+            }
+            node.tests.add(record);
+        }
+
+        /**
+         * Orders the children of the current node by their definition order
+         *
+         * @param order descriptions of the children in definition order, children not in it go last
+         */
+        void orderChildren(List<String> order) {
+            Map<String, MergedNode> ordered = new LinkedHashMap<String, MergedNode>();
+            for (String description : order) {
+                MergedNode child = this.children.get(description);
+                if (child != null) ordered.put(description, child);
+            }
+            for (MergedNode child : this.children.values()) ordered.putIfAbsent(child.description, child);
+            this.children = ordered;
+        }
+
+        /**
+         * Reports the current node, its descendants and its tests the same way GreenTeaLatte does
+         *
+         * @param reporter reporter to receive output
+         * @param depth depth of the current node
+         */
+        void report(GreenTeaLatteReporter reporter, int depth) {
+            reporter.describeStarted(depth, this.description);
+            for (MergedNode child : this.children.values()) {
+                child.report(reporter, depth + 1);
+                this.successfulTests += child.successfulTests;
+                this.pendingTests    += child.pendingTests;
+                this.failedTests     += child.failedTests;
+                this.durationNanos   += child.durationNanos;
+            }
+            for (ResultFile.Record record : this.tests) {
+                if (record.outcome == GreenTeaLatteReporter.Outcome.FAILED) this.failedTests++;
+                else if (record.outcome == GreenTeaLatteReporter.Outcome.PENDING) this.pendingTests++;
+                else this.successfulTests++;
+                this.durationNanos += record.durationNanos;
+                reporter.testFinished(depth, record.segments[record.segments.length - 1], record.outcome,
+                    record.durationNanos, null);
+            }
+            reporter.describeFinished(depth, this.successfulTests, this.pendingTests, this.failedTests,
+                this.durationNanos);
+        }
+    }
+
+    /**
+     * Runs every shard of a tree in its own process, then merges the results
+     * <p>
+     * The processes use the same java executable, class path and JVM options as the current process, apart
+     * from debugger agents, and receive every "greentealatte." system property of the current process apart
+     * from the report files. The output of each shard is written to a log file next to its partial result file.
+     * Shards which exit with an error are reported as failed tests of the merged tree. The JUnit XML and JSON
+     * Lines reports set by the "greentealatte.junit" and "greentealatte.jsonl" properties are written from the
+     * merged tree, since every shard would write the same file.
+     *
+     * @param mainClass class whose main method defines and runs the tree
+     * @param shardCount amount of processes to split the tree over
+     * @param args arguments passed to the main method of every shard
+     * @throws Error after the merged summary if any shard failed
+     */
+    public static void run(Class<?> mainClass, int shardCount, String... args) {
+        String resultFile = System.getProperty("greentealatte.results", GreenTeaLatte.DEFAULT_RESULT_FILE);
+        String java       = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+
+        Process[] processes = new Process[shardCount];
+        for (int shard = 0; shard < shardCount; shard++) {
+            List<String> command = new LinkedList<String>();
+            command.add(java);
+            for (String option : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+                // a debugger can only attach to one process, framework properties are passed below
+                if (option.startsWith("-agentlib:jdwp") || option.startsWith("-Xrunjdwp")) continue;
+                if (option.startsWith("-Dgreentealatte.")) continue;
+                command.add(option);
+            }
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            for (String property : System.getProperties().stringPropertyNames()) {
+                if (!property.startsWith("greentealatte.") || REPORT_PROPERTIES.contains(property)) continue;
+                command.add("-D" + property + "=" + System.getProperty(property));
+            }
+            command.add("-Dgreentealatte.results=" + resultFile);
+            command.add("-Dgreentealatte.shard=" + shard + "/" + shardCount);
+            command.add(mainClass.getName());
+            for (String arg : args) command.add(arg);
+
+            File log = new File(ResultFile.getShardFile(Paths.get(resultFile), shard) + ".log");
+            try {
+                processes[shard] = new ProcessBuilder(command).redirectErrorStream(true)
+                    .redirectOutput(log).start();
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        }
+
+        String[] shardFailures = new String[shardCount];
+        for (int shard = 0; shard < shardCount; shard++) {
+            try {
+                if (processes[shard].waitFor() != 0) {
+                    shardFailures[shard] = String.format("Shard %d exited with %d, see %s.log", shard,
+                        processes[shard].exitValue(), ResultFile.getShardFile(Paths.get(resultFile), shard));
+                }
+            } catch (InterruptedException exception) {
+                for (Process process : processes) process.destroy();
+                Thread.currentThread().interrupt();
+                throw new Error("Interrupted while waiting for shards", exception);
+            }
+        }
+
+        List<GreenTeaLatteReporter> reporters = new ArrayList<GreenTeaLatteReporter>();
+        reporters.add(new ConsoleReporter());
+        merge(resultFile, shardCount, GreenTeaLatte.combineReporters(reporters), shardFailures);
+    }
+
+    /**
+     * Merges the partial result files of all shards into the result file and reports the combined tree
+     * <p>
+     * Results from the previous run of tests which no shard ran are kept. Subtrees are reported in the
+     * order the tree defines them. The partial result files are deleted once merged.
+     *
+     * @param resultFile result file the shards were run with
+     * @param shardCount total amount of shards
+     * @param reporter reporter to receive the combined tree
+     * @throws Error if a shard did not write its results, or after reporting if any test failed
+     */
+    public static void merge(String resultFile, int shardCount, GreenTeaLatteReporter reporter) {
+        merge(resultFile, shardCount, reporter, new String[shardCount]);
+    }
+
+    /**
+     * Merges the partial result files of all shards, reporting shards which exited with an error as failed tests
+     *
+     * @param resultFile result file the shards were run with
+     * @param shardCount total amount of shards
+     * @param reporter reporter to receive the combined tree
+     * @param shardFailures description of how each shard failed, null for shards which completed
+     * @throws Error if a shard which completed did not write its results, or after reporting if any test
+     * or shard failed
+     */
+    private static void merge(String resultFile, int shardCount, GreenTeaLatteReporter reporter,
+        String[] shardFailures) {
+        Path file = Paths.get(resultFile);
+        MergedNode root = new MergedNode(String.format("Merged results of %d shards:", shardCount));
+        ResultFile merged = new ResultFile(file, ResultFile.read(file));
+        for (int shard = 0; shard < shardCount; shard++) {
+            Path shardFile = ResultFile.getShardFile(file, shard);
+            if (!Files.exists(shardFile)) {
+                // a shard which exited with an error is reported below, whether or not it wrote results
+                if (shardFailures[shard] != null) continue;
+                merged.close();
+                throw new Error(String.format("Shard %d did not write its results to %s", shard, shardFile));
+            }
+            boolean hasFailedTest = false;
+            for (ResultFile.Record record : ResultFile.read(shardFile).values()) {
+                merged.write(record);
+                root.add(record);
+                hasFailedTest |= record.outcome == GreenTeaLatteReporter.Outcome.FAILED;
+            }
+            // a shard with a failed test exits with an error anyway, which needs no report of its own
+            if (hasFailedTest) shardFailures[shard] = null;
+        }
+        merged.close();
+        for (int shard = 0; shard < shardCount; shard++) {
+            try {
+                Files.deleteIfExists(ResultFile.getShardFile(file, shard));
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        }
+        Path orderFile = ResultFile.getOrderFile(file);
+        root.orderChildren(ResultFile.readDescriptions(orderFile));
+        try {
+            Files.deleteIfExists(orderFile);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+
+        // other failed shards, such as one stopped by a hook, are reported as failed tests of the root
+        for (String failure : shardFailures) {
+            if (failure == null) continue;
+            root.tests.add(new ResultFile.Record(GreenTeaLatteReporter.Outcome.FAILED, 0, new String[] { failure }));
+        }
+
+        root.report(reporter, 0);
+        reporter.flush();
+        reporter.close();
+
+        // throwing runtime exception if at least one test failed in any shard
+        if (root.failedTests > 0) {
+            throw new Error("Did not pass all tests");
+        }
+    }
+}
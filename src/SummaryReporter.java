@@ -0,0 +1,60 @@
+package greentealatte.src;
+
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+
+/**
+ * Prints only the final test summary of the whole tree
+ * <p>
+ * Meant for continuous integration runs where the output of each test is not needed.
+ */
+public class SummaryReporter extends ConsoleReporter {
+    /**
+     * Creates a SummaryReporter which prints to standard output using tabs for indentation
+     */
+    public SummaryReporter() {
+        super();
+    }
+
+    /**
+     * Creates a SummaryReporter
+     *
+     * @param out stream to print to
+     * @param singleIndentation string used for a single level of indentation
+     */
+    public SummaryReporter(PrintStream out, String singleIndentation) {
+        super(out, singleIndentation);
+    }
+
+    /**
+     * Creates a SummaryReporter which encodes its output with a charset
+     *
+     * @param out stream to print to
+     * @param charset charset to encode the output with
+     * @param singleIndentation string used for a single level of indentation
+     */
+    public SummaryReporter(PrintStream out, Charset charset, String singleIndentation) {
+        super(out, charset, singleIndentation);
+    }
+
+    @Override
+    public void describeStarted(int depth, String description) {}
+
+    @Override
+    public void hookStarted(int depth, String description) {}
+
+    @Override
+    public void hookFailed(int depth, String description, Throwable throwable) {}
+
+    @Override
+    public void testFinished(int depth, String description, Outcome outcome, long durationNanos,
+        Throwable throwable) {}
+
+    @Override
+    public void testDetailed(int depth, String detail) {}
+
+    @Override
+    public void describeFinished(int depth, int passed, int pending, int failed, long durationNanos) {
+        if (depth == 0) super.describeFinished(depth, passed, pending, failed, durationNanos);
+    }
+}
@@ -0,0 +1,1203 @@
+package greentealatte.test;
+
+import greentealatte.src.ConsoleReporter;
+import greentealatte.src.DaemonRunner;
+import greentealatte.src.GreenTeaLatte;
+import greentealatte.src.GreenTeaLatteGenerator;
+import greentealatte.src.GreenTeaLatteReporter;
+import greentealatte.src.JUnitXmlReporter;
+import greentealatte.src.JsonLinesReporter;
+import greentealatte.src.ShardRunner;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Tests of the GreenTeaLatte framework, written as a GreenTeaLatte tree
+ * <p>
+ * Each test defines and runs a separate tree, then checks what that tree ran and printed.
+ * Run with {@code gradle check}.
+ */
+public class GreenTeaLatteTest {
+    // allocations of the tests are stored here, so the JIT cannot remove them
+    static volatile Object allocationSink = null;
+
+    // directory of the temporary files of all tests, created by the first one
+    static Path temporaryDirectory = null;
+
+    /**
+     * Output and outcome of running a tree
+     */
+    static class Run {
+        // storage
+        String output;
+        boolean hasPassed;
+    }
+
+    /**
+     * Reporter which logs the name and description of every event it receives
+     */
+    static class EventLog implements GreenTeaLatteReporter {
+        // storage
+        List<String> events;
+
+        /**
+         * Creates an EventLog
+         *
+         * @param events list to log the events to
+         */
+        EventLog(List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void describeStarted(int depth, String description) {
+            this.events.add("describeStarted " + description);
+        }
+
+        @Override
+        public void hookStarted(int depth, String description) {
+            this.events.add("hookStarted " + description);
+        }
+
+        @Override
+        public void hookFinished(int depth, String description, long durationNanos) {
+            this.events.add("hookFinished " + description);
+        }
+
+        @Override
+        public void hookFailed(int depth, String description, Throwable throwable) {
+            this.events.add("hookFailed " + description);
+        }
+
+        @Override
+        public void testFinished(int depth, String description, Outcome outcome, long durationNanos,
+            Throwable throwable) {
+            this.events.add("testFinished " + description + " " + outcome);
+        }
+
+        @Override
+        public void describeFinished(int depth, int passed, int pending, int failed, long durationNanos) {
+            this.events.add("describeFinished " + depth);
+        }
+
+        @Override
+        public void slowReported(int rank, String path, long durationNanos) {
+            this.events.add("slowReported " + path);
+        }
+
+        @Override
+        public void flush() {}
+    }
+
+    /**
+     * Defines and runs a tree, printing to a string instead of standard output
+     *
+     * @param definition defines the tree on a new GreenTeaLatte instance
+     * @return the output of the run
+     */
+    static Run run(Consumer<GreenTeaLatte> definition) {
+        GreenTeaLatte latte = new GreenTeaLatte();
+        definition.accept(latte);
+        return run(latte);
+    }
+
+    /**
+     * Runs a tree which is already defined, printing to a string instead of standard output
+     *
+     * @param latte tree to run
+     * @return the output of the run
+     */
+    static Run run(GreenTeaLatte latte) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream stream        = new PrintStream(out, true, StandardCharsets.UTF_8);
+        latte.setReporter(new ConsoleReporter(stream, StandardCharsets.UTF_8, "  "));
+        Run run = new Run();
+        try {
+            latte.run();
+            run.hasPassed = true;
+        } catch (Error error) {
+            run.hasPassed = false;
+        }
+        run.output = out.toString(StandardCharsets.UTF_8);
+        return run;
+    }
+
+    /**
+     * Checks if some output has a line which is exactly the given text, ignoring indentation
+     *
+     * @param output output to search
+     * @param line line to find
+     * @return true if the line is in the output
+     */
+    static boolean hasLine(String output, String line) {
+        for (String outputLine : output.split("\n")) {
+            if (outputLine.trim().equals(line)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Creates an empty temporary file in a directory which is deleted with all of its files when the JVM exits
+     * <p>
+     * Files the framework writes next to the file, such as partial result files of shards, are deleted as well.
+     *
+     * @return path of the file
+     */
+    static synchronized Path createTemporaryFile() {
+        try {
+            if (temporaryDirectory == null) {
+                Path directory = Files.createTempDirectory("greentealatte-test");
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> deleteRecursively(directory)));
+                temporaryDirectory = directory;
+            }
+            return Files.createTempFile(temporaryDirectory, "greentealatte-test", ".txt");
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * Deletes a directory and everything in it, leaving whatever cannot be deleted
+     *
+     * @param directory directory to delete
+     */
+    static void deleteRecursively(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException exception) {
+            // left for the system to clean up
+        }
+    }
+
+    /**
+     * Reads the lines of a file
+     *
+     * @param file file to read
+     * @return lines of the file
+     */
+    static List<String> readLines(Path file) {
+        try {
+            return Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * Sleeps, keeping the interrupt of the thread rather than throwing it
+     *
+     * @param millis milliseconds to sleep
+     */
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Defines the tests of selecting which tests and hooks run
+     *
+     * @param latte tree to define the tests on
+     */
+    static void describeSelection(GreenTeaLatte latte) {
+        latte.describe("selection", () -> {
+            latte.it("should run hooks of a describe without tests of its own", () -> {
+                List<String> log = new ArrayList<String>();
+                run(tree -> tree.describe("outer", () -> {
+                    tree.before("outer before", () -> log.add("outer before ran"));
+                    tree.after("outer after", () -> log.add("outer after ran"));
+                    tree.describe("inner", () -> tree.it("test", () -> log.add("test ran")));
+                }));
+                latte.assertTest(log.equals(List.of("test ran", "outer before ran", "outer after ran")));
+            });
+
+            latte.it("should report an empty describe without a filter", () -> {
+                Run run = run(tree -> tree.describe("empty", () -> {}));
+                latte.assertTest(hasLine(run.output, "empty"));
+            });
+
+            latte.it("should run hooks of a describe whose descendants match the grep", () -> {
+                List<String> log = new ArrayList<String>();
+                run(tree -> {
+                    tree.setGrep("^outer");
+                    tree.describe("outer", () -> {
+                        tree.before("outer before", () -> log.add("outer before ran"));
+                        tree.describe("inner", () -> tree.it("wanted", () -> log.add("wanted ran")));
+                    });
+                    tree.describe("other", () -> {
+                        tree.before("other before", () -> log.add("other before ran"));
+                        tree.it("other test", () -> log.add("other test ran"));
+                    });
+                });
+                latte.assertTest(log.equals(List.of("wanted ran", "outer before ran")));
+            });
+
+            latte.it("should leave out describes without a match for the grep", () -> {
+                Run run = run(tree -> {
+                    tree.setGrep("wanted");
+                    tree.describe("empty", () -> {});
+                    tree.describe("matching", () -> tree.it("wanted", () -> tree.assertTest(true)));
+                });
+                latte.assertTest(!hasLine(run.output, "empty") && hasLine(run.output, "matching"));
+            });
+
+            latte.it("should run hooks of lazy describes without tests of their own", () -> {
+                List<String> log = new ArrayList<String>();
+                Run run = run(tree -> {
+                    tree.setLazy(true);
+                    tree.describe("outer", () -> {
+                        tree.before("outer before", () -> log.add("outer before ran"));
+                        tree.describe("inner", () -> tree.it("test", () -> log.add("test ran")));
+                    });
+                    tree.describe("empty", () -> {});
+                });
+                latte.assertTest(log.equals(List.of("test ran", "outer before ran")));
+                latte.assertTest(hasLine(run.output, "empty"));
+            });
+
+            latte.it("should leave out lazy describes whose subtree has no match for the grep", () -> {
+                List<String> log = new ArrayList<String>();
+                Run run = run(tree -> {
+                    tree.setLazy(true);
+                    tree.setGrep("^parent > child > wanted");
+                    tree.describe("parent", () -> {
+                        tree.before("parent before", () -> log.add("parent before ran"));
+                        tree.describe("child", () -> tree.it("other", () -> log.add("other ran")));
+                    });
+                });
+                latte.assertTest(log.isEmpty());
+                latte.assertTest(!hasLine(run.output, "parent") && !hasLine(run.output, "child"));
+            });
+
+            latte.it("should reject defining tests from a test of a lazy tree", () -> {
+                Run run = run(tree -> {
+                    tree.setLazy(true);
+                    tree.describe("node", () -> tree.it("defines", () -> tree.it("nested", () -> {})));
+                });
+                latte.assertTest(!run.hasPassed);
+                latte.assertTest(run.output.contains("Cannot call 'it' within a test or hook runnable."));
+            });
+
+            latte.it("should not keep a tree alive from the thread which defined it", () -> {
+                List<WeakReference<GreenTeaLatte>> trees = new ArrayList<WeakReference<GreenTeaLatte>>();
+                run(tree -> {
+                    trees.add(new WeakReference<GreenTeaLatte>(tree));
+                    tree.it("root test", () -> tree.assertTest(true));
+                    tree.describe("node", () -> tree.it("test", () -> tree.assertTest(true)));
+                });
+                for (int i = 0; i < 10 && trees.get(0).get() != null; i++) System.gc();
+                latte.assertTest(trees.get(0).get() == null);
+            });
+
+            latte.it("should run no hooks of a parameterized test without a selected case", () -> {
+                List<String> log = new ArrayList<String>();
+                Run run = run(tree -> {
+                    tree.setGrep("wanted");
+                    tree.describe("cases", () -> {
+                        tree.before("cases before", () -> log.add("cases before ran"));
+                        tree.after("cases after", () -> log.add("cases after ran"));
+                        tree.itEach("case %d", Stream.of(1, 2), input -> log.add("case ran"));
+                    });
+                    tree.describe("other", () -> tree.it("wanted", () -> log.add("wanted ran")));
+                });
+                latte.assertTest(log.equals(List.of("wanted ran")));
+                latte.assertTest(!hasLine(run.output, "cases") && hasLine(run.output, "other"));
+            });
+        });
+    }
+
+    /**
+     * Defines the tests of parameterized tests
+     *
+     * @param latte tree to define the tests on
+     */
+    static void describeParameterized(GreenTeaLatte latte) {
+        latte.describe("parameterized", () -> {
+            latte.it("should fail the test when its source throws", () -> {
+                Iterator<Integer> broken = new Iterator<Integer>() {
+                    @Override
+                    public boolean hasNext() {
+                        return true;
+                    }
+
+                    @Override
+                    public Integer next() {
+                        throw new IllegalStateException("source broke");
+                    }
+                };
+                Run run = run(tree -> tree.describe("node", () -> {
+                    tree.itEach("case %d", broken, input -> tree.assertTest(true));
+                    tree.it("later test", () -> tree.assertTest(true));
+                }));
+                latte.assertTest(!run.hasPassed);
+                latte.assertTest(hasLine(run.output, "\u2717 case %d"));
+                latte.assertTest(hasLine(run.output, "\u2713 later test"));
+            });
+
+            latte.it("should fail the case when its description cannot be formatted", () -> {
+                Run run = run(tree -> tree.describe("node", () -> {
+                    tree.itEach("case %d", Stream.of("text", 2), input -> tree.assertTest(true));
+                }));
+                latte.assertTest(!run.hasPassed);
+                latte.assertTest(hasLine(run.output, "\u2717 case %d"));
+            });
+        });
+    }
+
+    /**
+     * Defines the tests of running the same tree more than once
+     *
+     * @param latte tree to define the tests on
+     */
+    static void describeRerun(GreenTeaLatte latte) {
+        latte.describe("running a tree again", () -> {
+            latte.it("should run every case of a parameterized test from a supplier each time", () -> {
+                List<String> log = new ArrayList<String>();
+                GreenTeaLatte tree = new GreenTeaLatte();
+                tree.describe("node", () -> {
+                    tree.itEach("case %d", () -> Stream.of(1, 2), input -> log.add("case " + input));
+                });
+                Run first  = run(tree);
+                Run second = run(tree);
+                latte.assertTest(first.hasPassed && second.hasPassed);
+                latte.assertTest(log.equals(List.of("case 1", "case 2", "case 1", "case 2")));
+            });
+
+            latte.it("should fail a parameterized test whose iterator was used up", () -> {
+                GreenTeaLatte tree = new GreenTeaLatte();
+                tree.describe("node", () -> {
+                    tree.itEach("case %d", List.of(1, 2).iterator(), input -> tree.assertTest(true));
+                });
+                Run first  = run(tree);
+                Run second = run(tree);
+                latte.assertTest(first.hasPassed && hasLine(first.output, "\u2713 case 1"));
+                latte.assertTest(!second.hasPassed && hasLine(second.output, "\u2717 case %d"));
+            });
+
+            latte.it("should tear down suite fixtures after their last user each time", () -> {
+                List<String> log = new ArrayList<String>();
+                GreenTeaLatte tree = new GreenTeaLatte();
+                tree.fixture("suite", GreenTeaLatte.FixtureScope.SUITE, () -> log.add("setup"), added -> {
+                    log.add("teardown");
+                });
+                tree.describe("first", () -> {
+                    tree.uses("suite");
+                    tree.it("test", () -> log.add("first " + tree.getFixture("suite")));
+                });
+                tree.describe("second", () -> {
+                    tree.uses("suite");
+                    tree.it("test", () -> log.add("second " + tree.getFixture("suite")));
+                });
+                tree.describe("third", () -> tree.it("test", () -> log.add("third")));
+                run(tree);
+                List<String> firstRun = new ArrayList<String>(log);
+                log.clear();
+                run(tree);
+                latte.assertTest(firstRun.equals(List.of("setup", "first true", "second true", "teardown", "third")));
+                latte.assertTest(log.equals(firstRun));
+            });
+        });
+    }
+
+    /**
+     * Defines the tests of fixtures
+     *
+     * @param latte tree to define the tests on
+     */
+    static void describeFixtures(GreenTeaLatte latte) {
+        latte.describe("fixtures", () -> {
+            latte.it("should tear down suite fixtures after their last user which runs in the shard", () -> {
+                List<String> log = new ArrayList<String>();
+                Path file = createTemporaryFile();
+                run(tree -> {
+                    tree.setResultFile(file.toString());
+                    tree.setShard(0, 2);
+                    tree.fixture("suite", GreenTeaLatte.FixtureScope.SUITE, () -> log.add("setup"), added -> {
+                        log.add("teardown");
+                    });
+                    tree.describe("first", () -> {
+                        tree.uses("suite");
+                        tree.it("test", () -> log.add("first " + tree.getFixture("suite")));
+                    });
+                    tree.describe("second", () -> {
+                        tree.uses("suite");
+                        tree.it("test", () -> log.add("second " + tree.getFixture("suite")));
+                    });
+                    tree.describe("third", () -> tree.it("test", () -> log.add("third")));
+                });
+                latte.assertTest(log.equals(List.of("setup", "first true", "teardown", "third")));
+            });
+
+            latte.it("should share a suite fixture between lazy describes", () -> {
+                List<String> log = new ArrayList<String>();
+                run(tree -> {
+                    tree.setLazy(true);
+                    tree.fixture("suite", GreenTeaLatte.FixtureScope.SUITE, () -> log.add("setup"), added -> {
+                        log.add("teardown");
+                    });
+                    tree.describe("first", () -> {
+                        tree.uses("suite");
+                        tree.it("test", () -> log.add("first " + tree.getFixture("suite")));
+                    });
+                    tree.describe("second", () -> {
+                        tree.uses("suite");
+                        tree.it("test", () -> log.add("second " + tree.getFixture("suite")));
+                    });
+                });
+                latte.assertTest(log.equals(List.of("setup", "first true", "second true", "teardown")));
+            });
+
+            latte.it("should reject registering a fixture within a lazy describe", () -> {
+                GreenTeaLatte tree = new GreenTeaLatte();
+                tree.setLazy(true);
+                tree.describe("node", () -> {
+                    tree.fixture("database", GreenTeaLatte.FixtureScope.SUITE, () -> "database");
+                    tree.it("test", () -> tree.assertTest(true));
+                });
+                String message = null;
+                try {
+                    run(tree);
+                } catch (IllegalStateException exception) {
+                    message = exception.getMessage();
+                }
+                latte.assertTest(message != null && message.contains("lazy 'describe'"));
+            });
+        });
+    }
+
+    /**
+     * Defines the tests of stopping a run once enough tests have failed
+     *
+     * @param latte tree to define the tests on
+     */
+    static void describeBail(GreenTeaLatte latte) {
+        latte.describe("bail", () -> {
+            latte.it("should report the tests which did not start as pending without running their hooks", () -> {
+                List<String> events = new ArrayList<String>();
+                Run run = run(tree -> {
+                    tree.addReporter(new EventLog(events));
+                    tree.setBail(1);
+                    tree.describe("first", () -> tree.it("failing", () -> tree.assertTest(false)));
+                    tree.describe("second", () -> {
+                        tree.beforeEach("setup", () -> {});
+                        tree.it("test", () -> tree.assertTest(true));
+                    });
+                    tree.it("own", () -> tree.assertTest(true));
+                });
+                latte.assertTest(events.equals(List.of("describeStarted Brewing a Green Tea Latte:",
+                    "describeStarted first", "testFinished failing FAILED", "describeFinished 1",
+                    "describeStarted second", "testFinished test PENDING", "describeFinished 1",
+                    "testFinished own PENDING", "describeFinished 0")));
+                latte.assertTest(hasLine(run.output, "skipped, the run stopped after 1 failed tests"));
+            });
+
+            latte.it("should read the bail property every time the tree runs", () -> {
+                GreenTeaLatte tree = new GreenTeaLatte();
+                tree.it("failing", () -> tree.assertTest(false));
+                tree.it("other", () -> tree.assertTest(false));
+                System.setProperty("greentealatte.bail", "1");
+                Run bailed;
+                try {
+                    bailed = run(tree);
+                } finally {
+                    System.clearProperty("greentealatte.bail");
+                }
+                Run full = run(tree);
+                latte.assertTest(bailed.output.contains("stopped after 1 failed") && !full.output.contains("stopped"));
+            });
+        });
+    }
+
+    /**
+     * Defines the tests of benchmarks attached with "bench"
+     *
+     * @param latte tree to define the tests on
+     */
+    static void describeBenchmarks(GreenTeaLatte latte) {
+        latte.describe("benchmarks", () -> {
+            latte.it("should report the mean and the percentiles of single operations", () -> {
+                AtomicInteger operations = new AtomicInteger();
+                Run run                  = run(tree -> {
+                    tree.setBenchmarkSamples(1, 2);
+                    tree.describe("node", () -> tree.bench("increments", operations::incrementAndGet));
+                });
+                latte.assertTest(run.hasPassed && hasLine(run.output, "\u2713 increments"));
+                latte.assertTest(run.output.lines().map(String::trim).anyMatch(line -> line.matches(
+                    "mean [\\d.]+ ns/op, [\\d,]+ ops/sec, p50 [\\d,]+ ns, p99 [\\d,]+ ns, max [\\d,]+ ns "
+                    + "\\(2 samples of \\d+ ops, timer overhead of \\d+ ns subtracted\\)")));
+                latte.assertTest(operations.get() > 0);
+            });
+
+            latte.it("should fail a benchmark whose assertion fails", () -> {
+                Run run = run(tree -> {
+                    tree.setBenchmarkSamples(0, 1);
+                    tree.bench("fails", () -> tree.assertTest(false));
+                });
+                latte.assertTest(!run.hasPassed && hasLine(run.output, "\u2717 fails"));
+            });
+
+            latte.it("should reject a benchmark without measurement samples", () -> {
+                try {
+                    new GreenTeaLatte().setBenchmarkSamples(0, 0);
+                    latte.assertTest(false);
+                } catch (IllegalArgumentException exception) {
+                    latte.assertTest(true);
+                }
+            });
+        });
+    }
+
+    /**
+     * Defines the tests of properties checked by "forAll"
+     *
+     * @param latte tree to define the tests on
+     */
+    static void describeProperties(GreenTeaLatte latte) {
+        latte.describe("properties", () -> {
+            latte.it("should pass a property which holds for every sample", () -> {
+                List<Integer> inputs = Collections.synchronizedList(new ArrayList<Integer>());
+                Run run              = run(tree -> {
+                    tree.setPropertySamples(50);
+                    tree.forAll("squares", GreenTeaLatteGenerator.integers(-100, 100), number -> {
+                        inputs.add(number);
+                        return number * number >= 0;
+                    });
+                });
+                latte.assertTest(run.hasPassed && hasLine(run.output, "\u2713 squares"));
+                latte.assertTest(inputs.size() == 50);
+            });
+
+            latte.it("should shrink a counterexample to the simplest input which still fails", () -> {
+                Run run = run(tree -> {
+                    tree.setSeed(1);
+                    tree.forAll("stays below 777", GreenTeaLatteGenerator.integers(0, 1000000), number -> number < 777);
+                });
+                latte.assertTest(!run.hasPassed && hasLine(run.output, "\u2717 stays below 777"));
+                latte.assertTest(hasLine(run.output, "java.lang.AssertionError: Property does not hold for 777"));
+                latte.assertTest(run.output.lines().map(String::trim).anyMatch(
+                    line -> line.matches("counterexample 777 \\(sample \\d+ of 100, shrunk \\d+ times from \\d+\\)")));
+                latte.assertTest(hasLine(run.output, "reproduce with -Dgreentealatte.seed=1"));
+            });
+
+            latte.it("should generate the same samples from the same seed", () -> {
+                List<List<Integer>> runs = new ArrayList<List<Integer>>();
+                for (int i = 0; i < 2; i++) {
+                    List<Integer> inputs = Collections.synchronizedList(new ArrayList<Integer>());
+                    run(tree -> {
+                        tree.setSeed(42);
+                        tree.forAll("records", GreenTeaLatteGenerator.integers(0, 1000000), inputs::add);
+                    });
+                    Collections.sort(inputs);
+                    runs.add(inputs);
+                }
+                latte.assertTest(runs.get(0).size() == 100 && runs.get(0).equals(runs.get(1)));
+            });
+
+            latte.it("should reject a property without samples", () -> {
+                try {
+                    new GreenTeaLatte().setPropertySamples(0);
+                    latte.assertTest(false);
+                } catch (IllegalArgumentException exception) {
+                    latte.assertTest(true);
+                }
+            });
+        });
+    }
+
+    /**
+     * Defines the tests of baselines stored by "assertNoRegression"
+     *
+     * @param latte tree to define the tests on
+     */
+    static void describeBaselines(GreenTeaLatte latte) {
+        latte.describe("baselines", () -> {
+            latte.it("should store the measurements of the first five passing runs", () -> {
+                String file = createTemporaryFile().toString();
+                for (int i = 0; i < 7; i++) {
+                    run(tree -> {
+                        tree.setBaselineFile(file);
+                        tree.it("measured", () -> tree.assertNoRegression(() -> {}));
+                    });
+                }
+                latte.assertTest(readLines(Paths.get(file)).size() == 5);
+            });
+
+            latte.it("should not store the measurements of a failed test", () -> {
+                String file = createTemporaryFile().toString();
+                run(tree -> {
+                    tree.setBaselineFile(file);
+                    tree.it("measured", () -> {
+                        tree.assertNoRegression(() -> {});
+                        tree.assertTest(false);
+                    });
+                });
+                latte.assertTest(readLines(Paths.get(file)).isEmpty());
+            });
+
+            latte.it("should replace the baselines of measured tests when refreshing", () -> {
+                String file = createTemporaryFile().toString();
+                Consumer<GreenTeaLatte> definition = tree -> {
+                    tree.setBaselineFile(file);
+                    tree.it("measured", () -> tree.assertNoRegression(() -> {}));
+                };
+                for (int i = 0; i < 3; i++) run(definition);
+                run(tree -> {
+                    tree.setBaselineRefresh(true);
+                    definition.accept(tree);
+                });
+                latte.assertTest(readLines(Paths.get(file)).size() == 1);
+            });
+
+            latte.it("should fail code which is slower than the limit and report its measurement", () -> {
+                Run run = run(tree -> {
+                    tree.it("fast", () -> tree.assertFasterThan(10000, () -> {}));
+                    tree.it("slow", () -> tree.assertFasterThan(10, () -> sleep(50)));
+                });
+                latte.assertTest(hasLine(run.output, "\u2713 fast") && hasLine(run.output, "\u2717 slow"));
+                latte.assertTest(run.output.lines().map(String::trim).anyMatch(line -> line.matches(
+                    "greentealatte\\.src\\.GreenTeaLatte\\$TestFailure: took \\d+[.,]\\d{3} ms, more than 10 ms")));
+                latte.assertTest(run.output.lines().map(String::trim).anyMatch(line -> line.startsWith("wall ")));
+            });
+
+            latte.it("should fail code which allocates more than the limit", () -> {
+                Run run = run(tree -> {
+                    tree.it("small", () -> tree.assertAllocatesAtMost(100000, () -> {}));
+                    tree.it("large", () -> tree.assertAllocatesAtMost(100000, () -> {
+                        allocationSink = new long[100000];
+                    }));
+                });
+                latte.assertTest(hasLine(run.output, "\u2713 small") && hasLine(run.output, "\u2717 large"));
+                latte.assertTest(run.output.contains("more than 100,000 bytes"));
+            });
+        });
+    }
+
+    /**
+     * Defines the tests of timeouts
+     *
+     * @param latte tree to define the tests on
+     */
+    static void describeTimeouts(GreenTeaLatte latte) {
+        latte.describe("timeouts", () -> {
+            latte.it("should run the next test once a test which timed out stops", () -> {
+                List<String> log = new ArrayList<String>();
+                Run run = run(tree -> tree.describe("node", () -> {
+                    tree.setTimeout(50);
+                    tree.it("slow", () -> {
+                        try {
+                            Thread.sleep(10000);
+                        } catch (InterruptedException exception) {
+                            log.add("slow interrupted");
+                        }
+                    });
+                    tree.it("next", () -> log.add("next ran"));
+                }));
+                latte.assertTest(!run.hasPassed && hasLine(run.output, "\u2717 slow"));
+                latte.assertTest(log.equals(List.of("slow interrupted", "next ran")));
+            });
+
+            latte.it("should skip the rest of a describe whose test does not stop", () -> {
+                List<String> log         = new ArrayList<String>();
+                List<String> events      = new ArrayList<String>();
+                AtomicBoolean isReleased = new AtomicBoolean(false);
+                Run run = run(tree -> {
+                    tree.addReporter(new EventLog(events));
+                    tree.describe("stuck", () -> {
+                        tree.setTimeout(50);
+                        tree.after("stuck after", () -> log.add("stuck after ran"));
+                        tree.it("ignores interrupts", () -> {
+                            while (!isReleased.get()) Thread.onSpinWait();
+                        });
+                        tree.it("next", () -> log.add("next ran"));
+                    });
+                    tree.describe("other", () -> tree.it("test", () -> log.add("other ran")));
+                });
+                isReleased.set(true);
+                latte.assertTest(!run.hasPassed && run.output.contains("left running"));
+                latte.assertTest(log.equals(List.of("other ran")));
+                latte.assertTest(events.contains("testFinished next PENDING"));
+                latte.assertTest(events.contains("hookFailed stuck after"));
+            });
+
+            latte.it("should fail a hook which runs for longer than the timeout", () -> {
+                List<String> log = new ArrayList<String>();
+                Run run = run(tree -> tree.describe("node", () -> {
+                    tree.setTimeout(50);
+                    tree.before("slow before", () -> {
+                        try {
+                            Thread.sleep(10000);
+                        } catch (InterruptedException exception) {
+                            log.add("slow before interrupted");
+                        }
+                    });
+                    tree.it("test", () -> tree.assertTest(true));
+                }));
+                latte.assertTest(!run.hasPassed);
+                latte.assertTest(log.equals(List.of("slow before interrupted")));
+            });
+        });
+    }
+
+    /**
+     * Defines the tests of concurrency stress tests
+     *
+     * @param latte tree to define the tests on
+     */
+    static void describeConcurrently(GreenTeaLatte latte) {
+        latte.describe("concurrently", () -> {
+            latte.it("should only pass a stress test which calls assertTest", () -> {
+                List<String> events = new ArrayList<String>();
+                run(tree -> {
+                    tree.addReporter(new EventLog(events));
+                    tree.itConcurrently("asserting", 2, 10, () -> tree.assertTest(true));
+                    tree.itConcurrently("not asserting", 2, 10, () -> {});
+                });
+                latte.assertTest(events.contains("testFinished asserting PASSED"));
+                latte.assertTest(events.contains("testFinished not asserting PENDING"));
+            });
+        });
+    }
+
+    /**
+     * Defines the tests of async tests
+     *
+     * @param latte tree to define the tests on
+     */
+    static void describeAsync(GreenTeaLatte latte) {
+        latte.describe("async", () -> {
+            latte.it("should run the hooks of each async test around it with a limit of 1", () -> {
+                List<String> log = new ArrayList<String>();
+                run(tree -> tree.describe("node", () -> {
+                    tree.setAsyncConcurrency(1);
+                    tree.beforeEach("before each", () -> log.add("before"));
+                    tree.afterEach("after each", () -> log.add("after"));
+                    tree.itAsync("first", () -> CompletableFuture.runAsync(() -> log.add("first")));
+                    tree.itAsync("second", () -> CompletableFuture.runAsync(() -> log.add("second")));
+                }));
+                latte.assertTest(log.equals(List.of("before", "first", "after", "before", "second", "after")));
+            });
+        });
+    }
+
+    /**
+     * Defines the tests of running sibling subtrees in parallel
+     *
+     * @param latte tree to define the tests on
+     */
+    static void describeParallel(GreenTeaLatte latte) {
+        latte.describe("parallel", () -> {
+            latte.it("should report the first running subtree while it runs", () -> {
+                List<String> events = Collections.synchronizedList(new ArrayList<String>());
+                GreenTeaLatte tree  = new GreenTeaLatte();
+                tree.setParallelism(2);
+                tree.describe("first", () -> {
+                    tree.it("reported", () -> tree.assertTest(true));
+                    tree.it("waiting", () -> {
+                        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+                        while (!events.contains("testFinished reported PASSED") && System.nanoTime() < deadline) {
+                            Thread.onSpinWait();
+                        }
+                        tree.assertTest(events.contains("testFinished reported PASSED"));
+                    });
+                });
+                tree.describe("second", () -> tree.it("test", () -> tree.assertTest(true)));
+                tree.setReporter(new EventLog(events));
+                tree.run();
+                latte.assertTest(events.equals(List.of("describeStarted Brewing a Green Tea Latte:",
+                    "describeStarted first", "testFinished reported PASSED", "testFinished waiting PASSED",
+                    "describeFinished 1", "describeStarted second", "testFinished test PASSED", "describeFinished 1",
+                    "describeFinished 0")));
+            });
+
+            latte.it("should keep the state of a test whose thread runs other subtrees while joining", () -> {
+                List<String> events = Collections.synchronizedList(new ArrayList<String>());
+                Run run = run(tree -> {
+                    tree.addReporter(new EventLog(events));
+                    tree.setParallelism(2);
+                    tree.describe("first", () -> tree.it("joins", () -> {
+                        // runs the queued subtrees on the current thread, as joining on a parallel stream can
+                        new RecursiveAction() {
+                            @Override
+                            protected void compute() {
+                                for (ForkJoinTask<?> task = pollTask(); task != null; task = pollTask()) task.invoke();
+                            }
+                        }.invoke();
+                        tree.assertTest(true);
+                    }));
+                    for (int i = 0; i < 4; i++) {
+                        tree.describe("other " + i, () -> tree.it("test", () -> tree.assertTest(true)));
+                    }
+                });
+                latte.assertTest(run.hasPassed && events.contains("testFinished joins PASSED"));
+            });
+        });
+    }
+
+    /**
+     * Defines the tests of running a tree through the daemon runner
+     *
+     * @param latte tree to define the tests on
+     */
+    static void describeDaemon(GreenTeaLatte latte) {
+        latte.describe("daemon", () -> {
+            latte.it("should run the tree for a socket request and send back its output in UTF-8", () -> {
+                GreenTeaLatte tree = new GreenTeaLatte();
+                tree.describe("node", () -> {
+                    tree.it("passing", () -> tree.assertTest(true));
+                    tree.it("failing", () -> tree.assertTest(false));
+                });
+                ByteArrayOutputStream selected = new ByteArrayOutputStream();
+                ByteArrayOutputStream full     = new ByteArrayOutputStream();
+                boolean hasSelectedPassed;
+                boolean hasFullPassed;
+                try (DaemonRunner daemon = new DaemonRunner(tree)) {
+                    int port          = daemon.listen(0);
+                    hasSelectedPassed = DaemonRunner.request(port, "passing",
+                        new PrintStream(selected, true, StandardCharsets.UTF_8));
+                    hasFullPassed     = DaemonRunner.request(port, null,
+                        new PrintStream(full, true, StandardCharsets.UTF_8));
+                }
+                String output = selected.toString(StandardCharsets.UTF_8);
+                latte.assertTest(hasSelectedPassed && hasLine(output, "\u2713 passing") && !output.contains("failing"));
+                latte.assertTest(!hasFullPassed && hasLine(full.toString(StandardCharsets.UTF_8), "\u2717 failing"));
+            });
+
+            latte.it("should stop accepting requests once closed", () -> {
+                DaemonRunner daemon = new DaemonRunner(new GreenTeaLatte());
+                int port            = daemon.listen(0);
+                daemon.close();
+                boolean isRefused = false;
+                try {
+                    DaemonRunner.request(port, null, new PrintStream(new ByteArrayOutputStream()));
+                } catch (UncheckedIOException exception) {
+                    isRefused = true;
+                }
+                latte.assertTest(isRefused);
+            });
+        });
+    }
+
+    /**
+     * Defines the tests of the events received by reporters
+     *
+     * @param latte tree to define the tests on
+     */
+    static void describeReporting(GreenTeaLatte latte) {
+        latte.describe("reporting", () -> {
+            latte.it("should report a hook when it starts and when it finishes", () -> {
+                List<String> events = new ArrayList<String>();
+                GreenTeaLatte tree  = new GreenTeaLatte();
+                tree.describe("node", () -> {
+                    tree.before("setup", () -> events.add("setup ran"));
+                    tree.it("test", () -> tree.assertTest(true));
+                });
+                tree.setReporter(new EventLog(events));
+                tree.run();
+                latte.assertTest(events.equals(List.of("describeStarted Brewing a Green Tea Latte:",
+                    "describeStarted node", "hookStarted setup", "setup ran", "hookFinished setup",
+                    "testFinished test PASSED", "describeFinished 1", "describeFinished 0")));
+            });
+
+            latte.it("should list the slowest tests and hooks after the summary, slowest first", () -> {
+                List<String> events = new ArrayList<String>();
+                GreenTeaLatte tree  = new GreenTeaLatte();
+                tree.setSlowestReportSize(2);
+                tree.describe("node", () -> {
+                    tree.before("setup", () -> sleep(40));
+                    tree.it("slow", () -> {
+                        sleep(80);
+                        tree.assertTest(true);
+                    });
+                    tree.it("fast", () -> tree.assertTest(true));
+                });
+                tree.setReporter(new EventLog(events));
+                tree.run();
+                latte.assertTest(events.subList(events.size() - 2, events.size()).equals(
+                    List.of("slowReported node > slow", "slowReported node > setup (before hook)")));
+
+                Run run = run(tree);
+                latte.assertTest(hasLine(run.output, "Slowest tests and hooks:"));
+                latte.assertTest(run.output.lines().map(String::trim)
+                    .anyMatch(line -> line.matches("1\\. node > slow \\(\\d+[.,]\\d{3} ms\\)")));
+            });
+
+            latte.it("should report the duration of every test and hook", () -> {
+                List<Long> durations = new ArrayList<Long>();
+                GreenTeaLatte tree   = new GreenTeaLatte();
+                tree.before("setup", () -> sleep(20));
+                tree.it("test", () -> {
+                    sleep(30);
+                    tree.assertTest(true);
+                });
+                tree.setReporter(new EventLog(new ArrayList<String>()) {
+                    @Override
+                    public void hookFinished(int depth, String description, long durationNanos) {
+                        durations.add(durationNanos);
+                    }
+
+                    @Override
+                    public void testFinished(int depth, String description, Outcome outcome, long durationNanos,
+                        Throwable throwable) {
+                        durations.add(durationNanos);
+                    }
+                });
+                tree.run();
+                latte.assertTest(durations.size() == 2);
+                latte.assertTest(durations.get(0) >= 20000000 && durations.get(1) >= 30000000);
+            });
+
+            latte.it("should report the class and the frames of the test of a failed assertion", () -> {
+                Run run            = run(tree -> tree.it("fails", () -> tree.assertTest(false)));
+                List<String> lines = Arrays.stream(run.output.split("\n")).map(String::trim).toList();
+                int failure        = lines.indexOf("\u2717 fails") + 1;
+                latte.assertTest(lines.get(failure).equals("greentealatte.src.GreenTeaLatte$TestFailure"));
+                latte.assertTest(lines.get(failure + 1).startsWith("greentealatte.test.GreenTeaLatteTest.lambda$"));
+                latte.assertTest(!run.output.contains("greentealatte.src.GreenTeaLatte."));
+            });
+
+            latte.it("should record a flight recorder event with the path and thread of every test", () -> {
+                Path file                     = createTemporaryFile();
+                AtomicReference<Thread> timed = new AtomicReference<Thread>();
+                try (Recording recording = new Recording()) {
+                    recording.start();
+                    run(tree -> tree.describe("node", () -> {
+                        tree.it("plain", () -> tree.assertTest(true));
+                        tree.it("timed", 1000, () -> {
+                            timed.set(Thread.currentThread());
+                            tree.assertTest(true);
+                        });
+                    }));
+                    recording.stop();
+                    recording.dump(file);
+                } catch (IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+                List<String> events = new ArrayList<String>();
+                try {
+                    for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                        if (!event.getEventType().getName().equals("greentealatte.Test")) continue;
+                        long threadId = event.getThread("testThread").getJavaThreadId();
+                        events.add(event.getString("path") + " " + event.getString("outcome") + " "
+                            + (threadId == Thread.currentThread().getId() ? "tree" : "")
+                            + (threadId == timed.get().getId() ? "timed" : ""));
+                    }
+                } catch (IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+                latte.assertTest(events.equals(List.of("node > plain passed tree", "node > timed passed timed")));
+            });
+
+            latte.it("should write a JUnit XML report with a decimal point in every locale", () -> {
+                Path file     = createTemporaryFile();
+                Locale locale = Locale.getDefault();
+                Locale.setDefault(Locale.GERMANY);
+                try {
+                    run(tree -> {
+                        tree.addReporter(new JUnitXmlReporter(file.toString()));
+                        tree.describe("<node>", () -> {
+                            tree.it("passes", () -> tree.assertTest(true));
+                            tree.it("fails", () -> tree.assertTest(false));
+                            tree.it("pending");
+                        });
+                    });
+                } finally {
+                    Locale.setDefault(locale);
+                }
+                List<String> lines = readLines(file);
+                latte.assertTest(lines.get(1).matches("<testsuite name=\"Brewing a Green Tea Latte:\" +tests=\"3\" +"
+                    + "failures=\"1\" +errors=\"0\" +skipped=\"1\" +time=\"\\d+\\.\\d{6}\" *>"));
+                latte.assertTest(lines.get(2).matches(
+                    " *<testcase classname=\"&lt;node&gt;\" name=\"passes\" time=\"\\d+\\.\\d{6}\"/>"));
+                latte.assertTest(lines.stream().filter(line -> line.contains("<failure")).count() == 1);
+                latte.assertTest(lines.stream().filter(line -> line.contains("<skipped/>")).count() == 1);
+                latte.assertTest(lines.get(lines.size() - 1).equals("</testsuite>"));
+            });
+
+            latte.it("should write a JSON Lines event for every test and describe", () -> {
+                Path file = createTemporaryFile();
+                run(tree -> {
+                    tree.addReporter(new JsonLinesReporter(file.toString()));
+                    tree.describe("node", () -> {
+                        tree.it("says \"hi\"", () -> tree.assertTest(true));
+                        tree.it("fails", () -> tree.assertTest(false));
+                    });
+                });
+                List<String> lines = readLines(file);
+                latte.assertTest(lines.size() == 4);
+                latte.assertTest(lines.get(0).matches("\\{\"event\":\"test\",\"path\":\"node > says \\\\\"hi\\\\\"\","
+                    + "\"outcome\":\"passed\",\"symbol\":\"\u2713\",\"durationNanos\":\\d+}"));
+                latte.assertTest(
+                    lines.get(1).startsWith("{\"event\":\"test\",\"path\":\"node > fails\",\"outcome\":\"failed\""));
+                latte.assertTest(lines.get(1).contains(
+                    ",\"error\":\"greentealatte.src.GreenTeaLatte$TestFailure\",\"stackTrace\":["));
+                latte.assertTest(lines.get(2).matches("\\{\"event\":\"describe\",\"path\":\"node\",\"passed\":1,"
+                    + "\"pending\":0,\"failed\":1,\"durationNanos\":\\d+}"));
+            });
+        });
+    }
+
+    /**
+     * Defines the tests of storing results in a result file
+     *
+     * @param latte tree to define the tests on
+     */
+    static void describeResultFile(GreenTeaLatte latte) {
+        latte.describe("result file", () -> {
+            latte.it("should keep results of paths which only look the same apart", () -> {
+                String file = createTemporaryFile().toString();
+                Consumer<GreenTeaLatte> definition = tree -> {
+                    tree.setResultFile(file);
+                    tree.describe("a > b", () -> tree.it("test", () -> tree.assertTest(false)));
+                    tree.describe("a", () -> tree.describe("b", () -> tree.it("test", () -> tree.assertTest(true))));
+                };
+                run(definition);
+                Run rerun = run(tree -> {
+                    tree.setRerunMode(GreenTeaLatte.RerunMode.FAILED_AND_NEW);
+                    definition.accept(tree);
+                });
+                latte.assertTest(readLines(Paths.get(file)).size() == 2);
+                latte.assertTest(hasLine(rerun.output, "a > b") && !hasLine(rerun.output, "a"));
+            });
+
+            latte.it("should drop results of tests which were removed from the tree", () -> {
+                String file = createTemporaryFile().toString();
+                run(tree -> {
+                    tree.setResultFile(file);
+                    tree.describe("node", () -> {
+                        tree.it("kept", () -> tree.assertTest(true));
+                        tree.it("removed", () -> tree.assertTest(true));
+                    });
+                });
+                run(tree -> {
+                    tree.setResultFile(file);
+                    tree.describe("node", () -> tree.it("kept", () -> tree.assertTest(true)));
+                });
+                List<String> lines = readLines(Paths.get(file));
+                latte.assertTest(lines.size() == 1 && lines.get(0).endsWith("\tkept"));
+            });
+
+            latte.it("should merge shards in the order the tree defines their subtrees", () -> {
+                Path file = createTemporaryFile();
+                for (int shard = 0; shard < 2; shard++) {
+                    int index = shard;
+                    run(tree -> {
+                        tree.setResultFile(file.toString());
+                        tree.setShard(index, 2);
+                        for (String description : List.of("a", "b", "c")) {
+                            tree.describe(description, () -> tree.it("test", () -> tree.assertTest(true)));
+                        }
+                    });
+                }
+                List<String> events = new ArrayList<String>();
+                ShardRunner.merge(file.toString(), 2, new EventLog(events));
+                latte.assertTest(events.equals(List.of("describeStarted Merged results of 2 shards:",
+                    "describeStarted a", "testFinished test PASSED", "describeFinished 1",
+                    "describeStarted b", "testFinished test PASSED", "describeFinished 1",
+                    "describeStarted c", "testFinished test PASSED", "describeFinished 1", "describeFinished 0")));
+            });
+
+            latte.it("should skip malformed lines of the result file", () -> {
+                Path file = createTemporaryFile();
+                try {
+                    Files.write(file, List.of("2\t1000\tnode\tfailed", "9\t1000\tnode\tunknown outcome",
+                        "x\t1000\tnode\tbad ordinal", "0\tbad duration", "0"), StandardCharsets.UTF_8);
+                } catch (IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+                Run rerun = run(tree -> {
+                    tree.setResultFile(file.toString());
+                    tree.setRerunMode(GreenTeaLatte.RerunMode.FAILED_AND_NEW);
+                    tree.describe("node", () -> {
+                        tree.it("failed", () -> tree.assertTest(true));
+                        tree.it("passed before", () -> tree.assertTest(true));
+                    });
+                });
+                latte.assertTest(rerun.hasPassed && hasLine(rerun.output, "\u2713 failed"));
+            });
+
+            latte.it("should name the property of an invalid rerun mode or shard", () -> {
+                for (String[] property : List.of(new String[] { "greentealatte.rerun", "FAILED" },
+                    new String[] { "greentealatte.shard", "4/4" }, new String[] { "greentealatte.shard", "1" })) {
+                    System.setProperty(property[0], property[1]);
+                    try {
+                        run(tree -> tree.it("test", () -> tree.assertTest(true)));
+                        latte.assertTest(false);
+                    } catch (IllegalArgumentException exception) {
+                        latte.assertTest(exception.getMessage().startsWith("Invalid " + property[0] + " "));
+                    } finally {
+                        System.clearProperty(property[0]);
+                    }
+                }
+            });
+
+            latte.it("should keep results of tests which did not run", () -> {
+                String file = createTemporaryFile().toString();
+                Consumer<GreenTeaLatte> definition = tree -> {
+                    tree.setResultFile(file);
+                    tree.setLazy(true);
+                    tree.describe("first", () -> tree.it("test", () -> tree.assertTest(true)));
+                    tree.describe("second", () -> tree.it("test", () -> tree.assertTest(true)));
+                };
+                run(definition);
+                run(tree -> {
+                    definition.accept(tree);
+                    tree.setGrep("^first");
+                });
+                latte.assertTest(readLines(Paths.get(file)).size() == 2);
+            });
+        });
+    }
+
+    /**
+     * Runs every test
+     *
+     * @param args unused
+     */
+    public static void main(String[] args) {
+        GreenTeaLatte latte = new GreenTeaLatte("GreenTeaLatte tests:");
+        describeSelection(latte);
+        describeParameterized(latte);
+        describeAsync(latte);
+        describeConcurrently(latte);
+        describeParallel(latte);
+        describeReporting(latte);
+        describeDaemon(latte);
+        describeBenchmarks(latte);
+        describeProperties(latte);
+        describeBaselines(latte);
+        describeFixtures(latte);
+        describeBail(latte);
+        describeRerun(latte);
+        describeTimeouts(latte);
+        describeResultFile(latte);
+        latte.run();
+    }
+}